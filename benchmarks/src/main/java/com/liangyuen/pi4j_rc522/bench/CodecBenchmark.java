@@ -0,0 +1,81 @@
+package com.liangyuen.pi4j_rc522.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liangyuen.pi4j_rc522.ByteArray;
+import com.liangyuen.pi4j_rc522.CrcA;
+
+/**
+ * Host side codecs used on every tap: ByteArray hex encoding and
+ * parsing and CRC_A.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark
+{
+    /** 7: a double size UID, 18: a READ answer, 64: a full FIFO. */
+    @Param({"7", "18", "64"})
+    public int size;
+
+    private byte[] data;
+    private String hex;
+    private String delimited;
+
+    @Setup
+    public void setup()
+    {
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+        hex = ByteArray.toHex(data);
+        delimited = new ByteArray(data).toString(":");
+    }
+
+    @Benchmark
+    public String toHex()
+    {
+        return ByteArray.toHex(data);
+    }
+
+    @Benchmark
+    public String toStringDelimited()
+    {
+        return ByteArray.wrap(data).toString(":");
+    }
+
+    @Benchmark
+    public ByteArray parse()
+    {
+        return ByteArray.parse(hex);
+    }
+
+    @Benchmark
+    public ByteArray parseDelimited()
+    {
+        return ByteArray.parse(delimited);
+    }
+
+    @Benchmark
+    public int crc()
+    {
+        return CrcA.compute(data, 0, data.length);
+    }
+}
@@ -0,0 +1,158 @@
+package com.liangyuen.pi4j_rc522.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.liangyuen.pi4j_rc522.ClassicDump;
+import com.liangyuen.pi4j_rc522.RaspRC522;
+import com.liangyuen.pi4j_rc522.SimulatedRC522;
+import com.liangyuen.pi4j_rc522.Uid;
+import com.liangyuen.pi4j_rc522.VirtualClassicCard;
+
+/**
+ * RaspRC522 operations against a SimulatedRC522 holding one MIFARE
+ * Classic 1K card.
+ *
+ * The latency parameter selects the simulator timing:
+ *   - none: no latency, measures driver CPU time and allocations.
+ *   - pi: about a Raspberry Pi at 1 MHz SPI: 20 us per transfer plus
+ *     8 us per byte, 100 us card answer time and 85 us per received
+ *     byte (106 kbit/s), i. e. the per-tap latency seen by a user.
+ *
+ * Request benchmarks start from a card in IDLE by cycling it out of and
+ * into the field, a simulator operation with no SPI traffic. The auth,
+ * read and write benchmarks run on a card selected once in setup.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReaderBenchmark
+{
+    private static final byte[] UID = {0x12, 0x34, 0x56, 0x78};
+    private static final byte[] KEY = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF
+    };
+    private static final byte BLOCK = 4;
+
+    @Param({"none", "pi"})
+    public String latency;
+
+    @Param({"HOST", "HARDWARE"})
+    public RaspRC522.CrcMode crcMode;
+
+    private SimulatedRC522 sim;
+    private VirtualClassicCard card;
+    private RaspRC522 reader;
+    private final int[] backBits = new int[1];
+    private final byte[] tagid = new byte[5];
+    private final byte[] block = new byte[16];
+
+    @Setup
+    public void setup()
+    {
+        sim = new SimulatedRC522();
+        if (latency.equals("pi"))
+        {
+            sim.setTransferLatency(20000, 8000);
+            sim.setCommandLatency(100000);
+            sim.setAirLatency(85000);
+            sim.setCrcLatency(10000);
+        }
+        card = new VirtualClassicCard(UID);
+        sim.addCard(card);
+        reader = new RaspRC522(sim);
+        reader.setCrcMode(crcMode);
+        if (selectCard() == null
+            || reader.authCard(RaspRC522.PICC_AUTHENT1A, BLOCK, KEY, UID)
+               != RaspRC522.MI_OK)
+        {
+            throw new IllegalStateException("Cannot select card");
+        }
+    }
+
+    /** Put the card back in IDLE, as if it just entered the field. */
+    private void resetField()
+    {
+        sim.removeCard(card);
+        sim.addCard(card);
+    }
+
+    private Uid selectCard()
+    {
+        resetField();
+        if (reader.setupTranscieve(RaspRC522.PICC_REQALL, backBits)
+            != RaspRC522.MI_OK)
+        {
+            return null;
+        }
+        return reader.selectCard();
+    }
+
+    @Benchmark
+    public int requestA()
+    {
+        resetField();
+        return reader.setupTranscieve(RaspRC522.PICC_REQIDL, backBits);
+    }
+
+    /** REQA and the legacy cascade level 1 antiColl(). */
+    @Benchmark
+    public int anticollision()
+    {
+        resetField();
+        reader.setupTranscieve(RaspRC522.PICC_REQIDL, backBits);
+        return reader.antiColl(tagid);
+    }
+
+    /** REQA, anticollision and select over all cascade levels. */
+    @Benchmark
+    public Uid select()
+    {
+        return selectCard();
+    }
+
+    @Benchmark
+    public int auth()
+    {
+        return reader.authCard(RaspRC522.PICC_AUTHENT1A, BLOCK, KEY, UID);
+    }
+
+    @Benchmark
+    public int read()
+    {
+        return reader.read(BLOCK, block);
+    }
+
+    @Benchmark
+    public int write()
+    {
+        return reader.write(BLOCK, block);
+    }
+
+    /** Select and read all 64 blocks, the full cost of a 1K dump tap. */
+    @Benchmark
+    public ClassicDump dump1K()
+    {
+        Uid uid = selectCard();
+        return reader.dumpClassic(RaspRC522.CLASSIC_1K_SECTORS,
+                                  RaspRC522.PICC_AUTHENT1A, KEY,
+                                  uid.getBytes());
+    }
+}
@@ -0,0 +1,127 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A set of MIFARE Classic block reads run by RaspRC522.readBatch(),
+ * together with their results.
+ *
+ * Requests are kept in the order they are added, results are reported
+ * in the same order. The reader sorts the requests internally so that
+ * each (sector, key) combination is authenticated only once.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class BlockBatch
+{
+    /** A block to read, the key to use and the result. */
+    static final class Request
+    {
+        final int sector;
+        final int block;
+        final int address;
+        final KeyRing.Key key;
+        int status = RaspRC522.MI_ERR;
+        final byte[] data = new byte[16];
+
+        Request(int sector, int block, int address, KeyRing.Key key)
+        {
+            this.sector = sector;
+            this.block = block;
+            this.address = address;
+            this.key = key;
+        }
+
+        /** True if request can share authentication with other. */
+        boolean sameAuth(Request other)
+        {
+            return other != null && sector == other.sector
+                && key.getMode() == other.key.getMode()
+                && Arrays.equals(key.bytes(), other.key.bytes());
+        }
+    }
+
+    /** Orders requests by sector, key and block address. */
+    private static final Comparator<Request> AUTH_ORDER =
+        new Comparator<Request>() {
+            @Override
+            public int compare(Request a, Request b)
+            {
+                if (a.sector != b.sector)
+                    return a.sector - b.sector;
+                if (a.key.getMode() != b.key.getMode())
+                    return a.key.getMode() - b.key.getMode();
+                byte[] ka = a.key.bytes();
+                byte[] kb = b.key.bytes();
+                for (int i = 0; i < ka.length; i += 1)
+                    if (ka[i] != kb[i])
+                        return (ka[i] & 0xFF) - (kb[i] & 0xFF);
+                return a.address - b.address;
+            }
+        };
+
+    private final List<Request> requests = new ArrayList<Request>();
+
+    /**
+     * Add a block to read.
+     *
+     * @param sector Sector 0-39.
+     * @param block Block in sector, 0-3 or 0-15 in sectors 32-39.
+     * @param mode RaspRC522.PICC_AUTHENT1A or PICC_AUTHENT1B.
+     * @param key Six bytes key.
+     * @return this batch.
+     */
+    public BlockBatch add(int sector, int block, byte mode, byte[] key)
+    {
+        int address = RaspRC522.sector2BlockAddress(sector, block);
+        if (address == -1)
+            throw new IllegalArgumentException("Bad sector or block");
+        requests.add(new Request(sector, block, address,
+                                 new KeyRing.Key(mode, key)));
+        return this;
+    }
+
+    /** Return number of requests. */
+    public int size()
+    {
+        return requests.size();
+    }
+
+    /** Return MI_OK if request i was read, else a MI_ error code. */
+    public int getStatus(int i)
+    {
+        return requests.get(i).status;
+    }
+
+    /** Return a copy of the 16 bytes read by request i. */
+    public byte[] getData(int i)
+    {
+        return requests.get(i).data.clone();
+    }
+
+    /** Return true if all requests were read successfully. */
+    public boolean isComplete()
+    {
+        for (Request r: requests)
+            if (r.status != RaspRC522.MI_OK)
+                return false;
+        return true;
+    }
+
+    /** Reset all results and return requests in authentication order. */
+    List<Request> prepare()
+    {
+        List<Request> sorted = new ArrayList<Request>(requests);
+        for (Request r: sorted)
+        {
+            r.status = RaspRC522.MI_ERR;
+            Arrays.fill(r.data, (byte) 0);
+        }
+        Collections.sort(sorted, AUTH_ORDER);
+        return sorted;
+    }
+}
@@ -0,0 +1,192 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of MIFARE Classic blocks keyed by (UID, block), used by
+ * RaspRC522 when installed using setBlockCache().
+ *
+ * When a block in the authenticated sector is read the reader also
+ * reads the rest of the sector in the same crypto session. Repeated
+ * reads in a sector authenticated using the same key are then served
+ * from memory; authCard() itself always runs on the card. Blocks are
+ * dropped when written. A card is dropped by invalidate(), done by the
+ * reader whenever the card is selected or halted and when authCard()
+ * fails for it. Blocks are thus only served while the card stays
+ * selected, and a different card with the same UID never sees them.
+ *
+ * Data written by other readers while the card is present is not seen.
+ * The cache is unsynchronized like the reader using it. The least
+ * recently used card is evicted when more than maxCards are cached.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class BlockCache
+{
+    /** Cached data for one card. */
+    private static final class CardBlocks
+    {
+        final byte[][] blocks = new byte[256][];
+        /** The key used to read each sector's blocks, or null. */
+        final KeyRing.Key[] keys =
+            new KeyRing.Key[RaspRC522.CLASSIC_4K_SECTORS];
+        /** True for sectors where read-ahead has been done. */
+        final boolean[] prefetched =
+            new boolean[RaspRC522.CLASSIC_4K_SECTORS];
+    }
+
+    public static final int DEFAULT_MAX_CARDS = 16;
+
+    private final Map<ByteArray, CardBlocks> cards;
+    private long hits = 0;
+    private long misses = 0;
+
+    /** Create a cache holding up to DEFAULT_MAX_CARDS cards. */
+    public BlockCache()
+    {
+        this(DEFAULT_MAX_CARDS);
+    }
+
+    /**
+     * Create an empty cache.
+     *
+     * @param maxCards Max number of cards cached, at least 1.
+     */
+    public BlockCache(final int maxCards)
+    {
+        if (maxCards < 1)
+            throw new IllegalArgumentException("maxCards must be >= 1");
+        cards = new LinkedHashMap<ByteArray, CardBlocks>(16, 0.75f, true) {
+            @Override
+            protected boolean
+            removeEldestEntry(Map.Entry<ByteArray, CardBlocks> e)
+            {
+                return size() > maxCards;
+            }
+        };
+    }
+
+    /** Map key: UID without any BCC. */
+    private static ByteArray cardId(byte[] uid)
+    {
+        return new ByteArray(uid.length == 5 ? Arrays.copyOf(uid, 4) : uid);
+    }
+
+    private static boolean sameKey(KeyRing.Key a, KeyRing.Key b)
+    {
+        return a != null && b != null && a.getMode() == b.getMode()
+            && Arrays.equals(a.bytes(), b.bytes());
+    }
+
+    /** Drop all blocks cached for a card. */
+    public void invalidate(byte[] uid)
+    {
+        cards.remove(cardId(uid));
+    }
+
+    /** Drop all cards. */
+    public void clear()
+    {
+        cards.clear();
+    }
+
+    /** Return number of cards with cached blocks. */
+    public int size()
+    {
+        return cards.size();
+    }
+
+    /** Return number of reads served from the cache. */
+    public long getHits()
+    {
+        return hits;
+    }
+
+    /** Return number of reads of the authenticated sector not cached. */
+    public long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Return cached data for a block read using key, not copied, or
+     * null. Counts a hit or a miss.
+     */
+    byte[] get(byte[] uid, int address, KeyRing.Key key)
+    {
+        CardBlocks card = cards.get(cardId(uid));
+        byte[] data = null;
+        if (card != null
+            && sameKey(card.keys[RaspRC522.block2Sector(address)], key))
+        {
+            data = card.blocks[address];
+        }
+        if (data == null)
+            misses += 1;
+        else
+            hits += 1;
+        return data;
+    }
+
+    /** Return true if block is cached. */
+    boolean contains(byte[] uid, int address)
+    {
+        CardBlocks card = cards.get(cardId(uid));
+        return card != null && card.blocks[address] != null;
+    }
+
+    /**
+     * Store the first 16 bytes in data as the contents of a block, read
+     * using key. Blocks in the sector read using another key are dropped.
+     */
+    void put(byte[] uid, int address, byte[] data, KeyRing.Key key)
+    {
+        ByteArray id = cardId(uid);
+        CardBlocks card = cards.get(id);
+        if (card == null)
+        {
+            card = new CardBlocks();
+            cards.put(id, card);
+        }
+        int sector = RaspRC522.block2Sector(address);
+        if (!sameKey(card.keys[sector], key))
+        {
+            dropSector(card, sector);
+            card.keys[sector] = key;
+        }
+        card.blocks[address] = Arrays.copyOf(data, 16);
+    }
+
+    /** Drop a block, e. g. since it is written. */
+    void remove(byte[] uid, int address)
+    {
+        CardBlocks card = cards.get(cardId(uid));
+        if (card != null)
+            card.blocks[address] = null;
+    }
+
+    /**
+     * Mark that read-ahead is done for a sector.
+     *
+     * @return false if already marked, i. e. read-ahead should not be
+     *         tried again.
+     */
+    boolean startPrefetch(byte[] uid, int sector)
+    {
+        CardBlocks card = cards.get(cardId(uid));
+        if (card == null || card.prefetched[sector])
+            return false;
+        card.prefetched[sector] = true;
+        return true;
+    }
+
+    private static void dropSector(CardBlocks card, int sector)
+    {
+        int first = RaspRC522.sector2BlockAddress(sector, 0);
+        for (int i = 0; i < RaspRC522.sectorBlockCount(sector); i += 1)
+            card.blocks[first + i] = null;
+        card.prefetched[sector] = false;
+    }
+}
@@ -1,100 +1,209 @@
 package com.liangyuen.pi4j_rc522;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+
 /**
- * A container for an array of bytes.
+ * A container for an array of bytes, printed and parsed as hex.
+ *
+ * A ByteArray is a view of a range in a byte[]. The constructors copy
+ * their argument, while wrap() and slice() share the underlying array
+ * without copying; changes to a shared array are visible through the
+ * view. equals() and hashCode() compare contents, so a ByteArray can
+ * be used as a map key as long as the underlying array isn't changed.
  *
  * @author Alec Leamas
  *
  */
-public class ByteArray {
+public final class ByteArray {
+
+    private static final char[] HEXDIGITS = "0123456789abcdef".toCharArray();
+
+    /** Value of each ASCII hex digit, -1 for other characters. */
+    private static final byte[] HEXVALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEXVALUES, (byte) -1);
+        for (int i = 0; i < 16; i += 1) {
+            HEXVALUES[HEXDIGITS[i]] = (byte) i;
+            HEXVALUES[Character.toUpperCase(HEXDIGITS[i])] = (byte) i;
+        }
+    }
+
+    private final byte[] data;
+    private final int offset;
+    private final int length;
+
+    private ByteArray(byte[] data, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || offset + length > data.length)
+            throw new IndexOutOfBoundsException("Bad range");
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /** Create an array holding a copy of bytes. */
+    public ByteArray(byte[] bytes)
+    {
+        this(bytes.clone(), 0, bytes.length);
+    }
+
+    /**
+     * Create an array from a text string. The parsing is lax, anything
+     * not deemed as a hex digit is a delimiter. Two adjacent digits form
+     * a byte, high nibble first; a single digit between delimiters is a
+     * byte of its own.
+     *
+     * @param string The parsed data, hex digits and other characters used
+     *               as delimiters.
+     */
+    public ByteArray(String string)
+    {
+        this(parse(string));
+    }
+
+    private ByteArray(ByteArray other)
+    {
+        this(other.data, other.offset, other.length);
+    }
 
-    protected static final String HEXDIGITS = "01234567890abcdef";
+    /** Return a view of bytes, without copying. */
+    public static ByteArray wrap(byte[] bytes)
+    {
+        return new ByteArray(bytes, 0, bytes.length);
+    }
 
-    /** The actual list of bytes. */
-    protected ArrayList<Byte> bytes = new ArrayList<Byte>();
+    /** Return a view of length bytes at offset, without copying. */
+    public static ByteArray wrap(byte[] bytes, int offset, int length)
+    {
+        return new ByteArray(bytes, offset, length);
+    }
 
-    /** Internal state in parse(). */
-    protected  enum ParseState {NIBBLE_1, NIBBLE_2};
+    /**
+     * Return a view of bytes from (inclusive) to to (exclusive) in this
+     * array, without copying.
+     */
+    public ByteArray slice(int from, int to)
+    {
+        if (from < 0 || to > length || from > to)
+            throw new IndexOutOfBoundsException("Bad slice");
+        return new ByteArray(data, offset + from, to - from);
+    }
+
+    /** Return number of bytes. */
+    public int length()
+    {
+        return length;
+    }
+
+    /** Return byte at given index. */
+    public byte get(int index)
+    {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("Bad index: " + index);
+        return data[offset + index];
+    }
 
-    /** Return the internal list of bytes as an array. */
+    /** Return a copy of the bytes as an array. */
     public byte[] toBytes()
     {
-        byte[] returnBytes = new byte[bytes.size()];
-        for (int i = 0; i < bytes.size(); i += 1)
-            returnBytes[i] = (Byte) bytes.toArray()[i];
-        return returnBytes;
+        return Arrays.copyOfRange(data, offset, offset + length);
     }
 
     /**
-     * Convert bytes in list to a printable representation
+     * Convert bytes to a printable representation.
      *
      * @param delim Delimiter printed between each byte, possibly empty
      *              or null.
      */
     public String toString(String delim)
     {
-        ArrayList<String> stringBytes = new ArrayList<String>();
-        for (Byte b : bytes) {
-            int intVal = b & 0x00ff;
-            String s =  "" + HEXDIGITS.charAt(intVal % 16);
-            s += HEXDIGITS.charAt(intVal / 16);
-            stringBytes.add(s);
+        if (length == 0)
+            return "";
+        String sep = delim == null ? "" : delim;
+        StringBuilder sb =
+            new StringBuilder(length * 2 + (length - 1) * sep.length());
+        for (int i = offset; i < offset + length; i += 1) {
+            if (i > offset)
+                sb.append(sep);
+            sb.append(HEXDIGITS[(data[i] >> 4) & 0x0F]);
+            sb.append(HEXDIGITS[data[i] & 0x0F]);
         }
-        return String.join(delim == null ? "" : delim, stringBytes);
+        return sb.toString();
     }
 
     /** Return printable representation of array without delimiters. */
+    @Override
     public String toString()
     {
-        return toString(null);
+        if (length == 0)
+            return "";
+        char[] chars = new char[length * 2];
+        for (int i = 0; i < length; i += 1) {
+            int b = data[offset + i];
+            chars[2 * i] = HEXDIGITS[(b >> 4) & 0x0F];
+            chars[2 * i + 1] = HEXDIGITS[b & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    /** Return bytes as hex digits without delimiters. */
+    public static String toHex(byte[] bytes)
+    {
+        return wrap(bytes).toString();
     }
 
     /**
-     * Parse a text string and update internal array with parsed values.
-     * The parsing is lax, anything not deemed as a hex digit is ignored.
+     * Parse a text string as described in ByteArray(String).
      *
-     * @param string The parsed data, hex digits and other characters used
-     *               as delimiters.
+     * @return A view of the parsed bytes.
      */
-    public void parse(String string)
-    {
-        ParseState state = ParseState.NIBBLE_1;
-        int lowNibble = 0;
-        for (char ch: string.toCharArray()) {
-            int value = HEXDIGITS.indexOf(Character.toLowerCase(ch));
-            switch (state) {
-                case NIBBLE_1:
-                    if (value == -1)
-                        break;
-                    lowNibble = value;
-                    state = ParseState.NIBBLE_2;
-                    break;
-                case NIBBLE_2:
-                    state = ParseState.NIBBLE_1;
-                    if (value == -1)
-                        bytes.add((byte) lowNibble);
-                    else
-                        bytes.add((byte) (lowNibble + 16*value));
-                    break;
+    public static ByteArray parse(String string)
+    {
+        byte[] bytes = new byte[(string.length() + 1) / 2];
+        int count = 0;
+        int high = -1;
+        for (int i = 0; i < string.length(); i += 1) {
+            char ch = string.charAt(i);
+            int value = ch < 128 ? HEXVALUES[ch] : -1;
+            if (high == -1) {
+                high = value;
+            }
+            else if (value == -1) {
+                bytes[count++] = (byte) high;
+                high = -1;
+            }
+            else {
+                bytes[count++] = (byte) ((high << 4) | value);
+                high = -1;
             }
         }
-        if (state == ParseState.NIBBLE_2) {
-            bytes.add((byte)lowNibble);
-        }
+        if (high != -1)
+            bytes[count++] = (byte) high;
+        return new ByteArray(bytes, 0, count);
     }
 
-    public ByteArray(byte[] bytes)
+    @Override
+    public boolean equals(Object other)
     {
-        this.bytes = new ArrayList<Byte>();
-        for (byte b: bytes) {
-            this.bytes.add(b);
-        }
+        if (!(other instanceof ByteArray))
+            return false;
+        ByteArray that = (ByteArray) other;
+        if (length != that.length)
+            return false;
+        for (int i = 0; i < length; i += 1)
+            if (data[offset + i] != that.data[that.offset + i])
+                return false;
+        return true;
     }
 
-    public ByteArray(String bytes)
+    @Override
+    public int hashCode()
     {
-        parse(bytes);
+        int hash = 1;
+        for (int i = offset; i < offset + length; i += 1)
+            hash = 31 * hash + data[i];
+        return hash;
     }
 
     public static void main(String[] args)
@@ -0,0 +1,86 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A card arrival or removal published by a CardEventPublisher.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public final class CardEvent
+{
+    public enum Type {ARRIVED, REMOVED};
+
+    private final Type type;
+    private final byte[] uid;
+    private final int sak;
+    private final SortedMap<Integer, byte[]> blocks;
+    private final long timestamp;
+
+    /**
+     * Create an event.
+     *
+     * @param type ARRIVED or REMOVED.
+     * @param uid Card UID, 4, 7 or 10 bytes.
+     * @param sak Select acknowledge of the card.
+     * @param blocks Block data read on arrival, keyed by block address.
+     *               Not copied.
+     */
+    CardEvent(Type type, byte[] uid, int sak, SortedMap<Integer, byte[]> blocks)
+    {
+        this.type = type;
+        this.uid = uid.clone();
+        this.sak = sak;
+        this.blocks = Collections.unmodifiableSortedMap(blocks);
+        this.timestamp = System.currentTimeMillis();
+    }
+
+    /** Create an event without block data. */
+    CardEvent(Type type, byte[] uid, int sak)
+    {
+        this(type, uid, sak, new TreeMap<Integer, byte[]>());
+    }
+
+    public Type getType()
+    {
+        return type;
+    }
+
+    /** Return card UID, 4, 7 or 10 bytes. */
+    public byte[] getUid()
+    {
+        return uid.clone();
+    }
+
+    /** Return the SAK the card sent when selected. */
+    public int getSak()
+    {
+        return sak;
+    }
+
+    /**
+     * Return the blocks read on arrival, keyed by block address. Blocks
+     * which could not be read are missing. Always empty for removals.
+     */
+    public Map<Integer, byte[]> getBlocks()
+    {
+        return blocks;
+    }
+
+    /** Return the time of the event, as System.currentTimeMillis(). */
+    public long getTimestamp()
+    {
+        return timestamp;
+    }
+
+    @Override
+    public String toString()
+    {
+        return type + " " + ByteArray.toHex(uid) + " sak="
+            + ByteArray.toHex(new byte[] {(byte) sak})
+            + " blocks=" + blocks.keySet();
+    }
+}
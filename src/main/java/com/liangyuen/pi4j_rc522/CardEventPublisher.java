@@ -0,0 +1,360 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes card events from a reader to Flow subscribers.
+ *
+ * Events are produced by a CardPoller owned by the publisher. On
+ * arrival, the event carries the card's UID and SAK and optionally the
+ * contents of a set of MIFARE Classic blocks, authenticated using a
+ * KeyRing.
+ *
+ * Each subscriber has a bounded buffer. Events are delivered on an
+ * Executor as the subscriber requests them, so a slow subscriber never
+ * stalls the reader. When a subscriber's buffer is full the oldest event
+ * in it is dropped.
+ *
+ * The poller can be run by start(), by a ReaderCoordinator or by a
+ * ReaderExecutor; see getPoller().
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class CardEventPublisher
+    implements Flow.Publisher<CardEvent>, CardListener, AutoCloseable
+{
+    public static final int DEFAULT_BUFFER_SIZE = 32;
+
+    /** Subscription state, guarded by its own monitor. */
+    private final class Subscription implements Flow.Subscription, Runnable
+    {
+        private final Flow.Subscriber<? super CardEvent> subscriber;
+        private final ArrayDeque<CardEvent> buffer =
+            new ArrayDeque<CardEvent>();
+        private long demand = 0;
+        private boolean subscribed = false;
+        private boolean scheduled = false;
+        private boolean cancelled = false;
+        private boolean completed = false;
+        private Throwable error = null;
+
+        Subscription(Flow.Subscriber<? super CardEvent> subscriber)
+        {
+            this.subscriber = subscriber;
+        }
+
+        synchronized void offer(CardEvent event)
+        {
+            if (cancelled || completed)
+                return;
+            if (buffer.size() == bufferSize)
+            {
+                buffer.pollFirst();
+                dropped.incrementAndGet();
+            }
+            buffer.addLast(event);
+            schedule();
+        }
+
+        synchronized void complete()
+        {
+            completed = true;
+            schedule();
+        }
+
+        @Override
+        public synchronized void request(long n)
+        {
+            if (cancelled)
+                return;
+            if (n <= 0)
+                error = new IllegalArgumentException(
+                    "Non-positive request: " + n);
+            else
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            schedule();
+        }
+
+        @Override
+        public void cancel()
+        {
+            synchronized (this)
+            {
+                cancelled = true;
+                buffer.clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        /** Run delivery on the executor if there is anything to do. */
+        private void schedule()
+        {
+            if (scheduled || cancelled)
+                return;
+            if (!subscribed || error != null
+                || (demand > 0 && !buffer.isEmpty())
+                || (completed && buffer.isEmpty()))
+            {
+                scheduled = true;
+                executor.execute(this);
+            }
+        }
+
+        /** Deliver signals to the subscriber, one at a time. */
+        @Override
+        public void run()
+        {
+            boolean first;
+            synchronized (this)
+            {
+                first = !subscribed;
+                subscribed = true;
+            }
+            if (first)
+                subscriber.onSubscribe(this);
+            while (true)
+            {
+                CardEvent event = null;
+                Throwable failure = null;
+                boolean done = false;
+                synchronized (this)
+                {
+                    if (cancelled)
+                    {
+                        scheduled = false;
+                        return;
+                    }
+                    if (error != null)
+                    {
+                        failure = error;
+                        cancelled = true;
+                    }
+                    else if (demand > 0 && !buffer.isEmpty())
+                    {
+                        event = buffer.pollFirst();
+                        demand -= 1;
+                    }
+                    else if (completed && buffer.isEmpty())
+                    {
+                        done = true;
+                        cancelled = true;
+                    }
+                    else
+                    {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                if (failure != null)
+                {
+                    subscriptions.remove(this);
+                    subscriber.onError(failure);
+                }
+                else if (done)
+                {
+                    subscriptions.remove(this);
+                    subscriber.onComplete();
+                }
+                else
+                {
+                    try {
+                        subscriber.onNext(event);
+                    }
+                    catch (Throwable t) {
+                        cancel();
+                    }
+                }
+            }
+        }
+    }
+
+    private final CardPoller poller;
+    private final KeyRing ring;
+    private final int[] blocks;
+    private final Executor executor;
+    private final int bufferSize;
+    private final List<Subscription> subscriptions =
+        new CopyOnWriteArrayList<Subscription>();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed = false;
+    private Thread thread = null;
+
+    /**
+     * Create a publisher which only reports UID and SAK, delivering
+     * events using defaultExecutor().
+     *
+     * @param reader The reader to poll.
+     */
+    public CardEventPublisher(RaspRC522 reader)
+    {
+        this(reader, null, new int[0], defaultExecutor(),
+             DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Return the common ForkJoinPool, or an executor running each task
+     * in a new thread if the pool has a single thread which a slow
+     * subscriber could hog. This is the SubmissionPublisher policy.
+     */
+    public static Executor defaultExecutor()
+    {
+        if (ForkJoinPool.getCommonPoolParallelism() > 1)
+            return ForkJoinPool.commonPool();
+        return new Executor() {
+            @Override
+            public void execute(Runnable task)
+            {
+                new Thread(task).start();
+            }
+        };
+    }
+
+    /**
+     * Create a publisher.
+     *
+     * @param reader The reader to poll.
+     * @param ring Keys used to authenticate blocks, null if blocks is
+     *             empty.
+     * @param blocks MIFARE Classic blocks read on card arrival.
+     * @param executor Runs delivery to subscribers.
+     * @param bufferSize Max number of undelivered events per subscriber.
+     */
+    public CardEventPublisher(RaspRC522 reader, KeyRing ring, int[] blocks,
+                              Executor executor, int bufferSize)
+    {
+        if (bufferSize < 1)
+            throw new IllegalArgumentException("Buffer size must be >= 1");
+        if (blocks.length > 0 && ring == null)
+            throw new IllegalArgumentException("No keys for blocks");
+        this.poller = new CardPoller(reader, this);
+        this.ring = ring;
+        this.blocks = blocks.clone();
+        Arrays.sort(this.blocks);
+        this.executor = executor;
+        this.bufferSize = bufferSize;
+    }
+
+    /** Return the poller producing the events, for configuration. */
+    public CardPoller getPoller()
+    {
+        return poller;
+    }
+
+    /** Return total number of events dropped due to full buffers. */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super CardEvent> subscriber)
+    {
+        Subscription subscription = new Subscription(subscriber);
+        // Checked and added under the lock close() sets closed with, so
+        // a subscription is either completed here or seen by close().
+        boolean added;
+        synchronized (this)
+        {
+            added = !closed && subscriptions.add(subscription);
+        }
+        if (!added)
+        {
+            subscription.complete();
+            return;
+        }
+        synchronized (subscription)
+        {
+            subscription.schedule();
+        }
+    }
+
+    /** Run the poller on a new thread until close(). */
+    public synchronized void start(ThreadFactory factory)
+    {
+        if (thread != null || closed)
+            throw new IllegalStateException("Already started");
+        thread = factory.newThread(poller);
+        thread.start();
+    }
+
+    /**
+     * Stop the poller if started by start() and complete all
+     * subscriptions once their buffered events are delivered. If
+     * interrupted while waiting for the poller thread, the subscriptions
+     * are still completed and the interrupt flag is set on return.
+     */
+    @Override
+    public void close()
+    {
+        Thread t;
+        synchronized (this)
+        {
+            closed = true;
+            t = thread;
+        }
+        if (t != null)
+        {
+            poller.stop();
+            try {
+                t.join();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (Subscription subscription: subscriptions)
+            subscription.complete();
+    }
+
+    @Override
+    public void cardArrived(RaspRC522 reader, byte[] uid)
+    {
+        SortedMap<Integer, byte[]> data = new TreeMap<Integer, byte[]>();
+        int sector = -1;
+        boolean authenticated = false;
+        for (int block: blocks)
+        {
+            if (RaspRC522.block2Sector(block) != sector)
+            {
+                sector = RaspRC522.block2Sector(block);
+                authenticated = reader.authSector(ring, sector, uid) != null;
+            }
+            if (!authenticated)
+                continue;
+            byte[] buff = new byte[16];
+            if (reader.read((byte) block, buff) == RaspRC522.MI_OK)
+                data.put(block, buff);
+            else if (reader.reselect(uid) == RaspRC522.MI_OK)
+                sector = -1;                // Authenticate again
+            else
+                break;
+        }
+        publish(new CardEvent(CardEvent.Type.ARRIVED, uid,
+                              poller.getPresentSak(), data));
+    }
+
+    @Override
+    public void cardRemoved(RaspRC522 reader, byte[] uid)
+    {
+        publish(new CardEvent(CardEvent.Type.REMOVED, uid,
+                              poller.getPresentSak()));
+    }
+
+    private void publish(CardEvent event)
+    {
+        if (closed)
+            return;
+        for (Subscription subscription: subscriptions)
+            subscription.offer(event);
+    }
+}
@@ -0,0 +1,27 @@
+package com.liangyuen.pi4j_rc522;
+
+/**
+ * Receives card events from a CardPoller.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public interface CardListener
+{
+    /**
+     * A new card has entered the field. The card is selected when
+     * invoked, so the listener can authenticate and read it directly
+     * using the reader. Invoked in the polling thread.
+     *
+     * @param reader The reader which detected the card.
+     * @param uid Card UID, 4, 7 or 10 bytes.
+     */
+    void cardArrived(RaspRC522 reader, byte[] uid);
+
+    /**
+     * A card reported by cardArrived() has left the field.
+     *
+     * @param reader The reader which detected the card.
+     * @param uid Card UID, 4, 7 or 10 bytes.
+     */
+    void cardRemoved(RaspRC522 reader, byte[] uid);
+}
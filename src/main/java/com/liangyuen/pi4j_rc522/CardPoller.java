@@ -0,0 +1,201 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Polls a reader for cards and reports arrivals and removals to a
+ * CardListener.
+ *
+ * Cards are detected using WUPA followed by RaspRC522.selectCard(),
+ * which handles 4, 7 and 10 byte UIDs.
+ * While a card is present, its presence is checked each poll by waking
+ * and selecting its known UID. A card is reported as removed only after
+ * it has been missing in a number of consecutive polls, so a card at the
+ * edge of the field does not generate repeated events.
+ *
+ * The poll interval adapts to activity: while a card is present or has
+ * just been seen, polling is done at the max poll rate. When the field
+ * has been empty for a while the interval gradually grows towards the
+ * idle interval.
+ *
+ * pollOnce() does a single poll and can be driven by an external
+ * scheduler; run() loops until stop() is called.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class CardPoller implements Runnable
+{
+    public static final double DEFAULT_MAX_POLL_RATE = 50.0;
+    public static final long DEFAULT_IDLE_INTERVAL = 100;     // ms
+    public static final int DEFAULT_REMOVE_DEBOUNCE = 3;
+
+    private static final double BACKOFF = 1.5;
+
+    private final RaspRC522 reader;
+    private final CardListener listener;
+
+    private long minIntervalNanos;
+    private long idleIntervalNanos;
+    private int removeDebounce = DEFAULT_REMOVE_DEBOUNCE;
+
+    private volatile boolean running = false;
+    private byte[] present = null;
+    private int presentSak = 0;
+    private int missed = 0;
+    private long interval;
+
+    private final int[] backBits = new int[1];
+    private Uid detected = null;
+
+    /**
+     * Create a poller.
+     *
+     * @param reader Reader to poll.
+     * @param listener Receives card events.
+     */
+    public CardPoller(RaspRC522 reader, CardListener listener)
+    {
+        this.reader = reader;
+        this.listener = listener;
+        setMaxPollRate(DEFAULT_MAX_POLL_RATE);
+        setIdleInterval(DEFAULT_IDLE_INTERVAL);
+        interval = minIntervalNanos;
+    }
+
+    /** Return the reader being polled. */
+    public RaspRC522 getReader()
+    {
+        return reader;
+    }
+
+    /**
+     * Set the max number of polls per second, used while cards are
+     * present and right after a card has been seen.
+     */
+    public void setMaxPollRate(double pollsPerSecond)
+    {
+        if (pollsPerSecond <= 0)
+            throw new IllegalArgumentException("Poll rate must be > 0");
+        minIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / pollsPerSecond);
+        interval = Math.max(interval, minIntervalNanos);
+    }
+
+    /**
+     * Set the longest interval between polls, reached after the field
+     * has been empty for a while.
+     *
+     * @param millis Idle interval in ms. Values shorter than the max
+     *               poll rate interval disables the back-off.
+     */
+    public void setIdleInterval(long millis)
+    {
+        if (millis < 0)
+            throw new IllegalArgumentException("Negative interval");
+        idleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Set number of consecutive polls a present card must be missing
+     * before it is reported as removed, at least 1.
+     */
+    public void setRemoveDebounce(int polls)
+    {
+        if (polls < 1)
+            throw new IllegalArgumentException("Debounce must be >= 1");
+        removeDebounce = polls;
+    }
+
+    /** Return UID of card currently present, or null. */
+    public byte[] getPresentCard()
+    {
+        return present == null ? null : present.clone();
+    }
+
+    /**
+     * Return SAK of card currently present, or of the last card
+     * present.
+     */
+    public int getPresentSak()
+    {
+        return presentSak;
+    }
+
+    /**
+     * Poll the reader once, reporting any arrival or removal.
+     *
+     * @return Nanoseconds until next poll is due.
+     */
+    public long pollOnce()
+    {
+        if (present != null)
+        {
+            if (reader.reselect(present) == RaspRC522.MI_OK)
+                missed = 0;
+            else if (++missed >= removeDebounce)
+            {
+                byte[] uid = present;
+                present = null;
+                missed = 0;
+                listener.cardRemoved(reader, uid);
+            }
+            interval = minIntervalNanos;
+            return interval;
+        }
+        if (detect())
+        {
+            present = detected.getBytes();
+            listener.cardArrived(reader, present.clone());
+            reader.stopCrypto();
+            interval = minIntervalNanos;
+            return interval;
+        }
+        long next = interval;
+        interval = Math.max(minIntervalNanos,
+                            Math.min(idleIntervalNanos,
+                                     (long) (interval * BACKOFF)));
+        return next;
+    }
+
+    /**
+     * Poll until stop() is called, sleeping between polls. Listener
+     * invocations are done in the calling thread.
+     */
+    @Override
+    public void run()
+    {
+        running = true;
+        while (running)
+        {
+            long start = System.nanoTime();
+            long delay = pollOnce();
+            long remaining = delay - (System.nanoTime() - start);
+            if (remaining > 0)
+                LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted())
+                break;
+        }
+        running = false;
+    }
+
+    /** Make a running run() return after current poll. */
+    public void stop()
+    {
+        running = false;
+    }
+
+    /** Try to find and select a new card, leaving it in detected. */
+    private boolean detect()
+    {
+        if (reader.setupTranscieve(RaspRC522.PICC_REQALL, backBits)
+            != RaspRC522.MI_OK)
+        {
+            return false;
+        }
+        detected = reader.selectCard();
+        if (detected == null)
+            return false;
+        presentSak = detected.getSak();
+        return true;
+    }
+}
@@ -0,0 +1,75 @@
+package com.liangyuen.pi4j_rc522;
+
+/**
+ * The result of RaspRC522.dumpClassic(): all block data in a MIFARE
+ * Classic 1K or 4K card together with a status for each block.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class ClassicDump
+{
+    private final byte[] data;
+    private final int[] status;
+
+    /**
+     * Create an empty dump where all blocks have status MI_ERR.
+     *
+     * @param blocks Number of blocks, 64 for 1K or 256 for 4K cards.
+     */
+    public ClassicDump(int blocks)
+    {
+        data = new byte[blocks * 16];
+        status = new int[blocks];
+        for (int i = 0; i < blocks; i += 1)
+            status[i] = RaspRC522.MI_ERR;
+    }
+
+    /** Return number of blocks in dump. */
+    public int getBlockCount()
+    {
+        return status.length;
+    }
+
+    /** Return data for all blocks, 16 bytes per block. */
+    public byte[] getData()
+    {
+        return data;
+    }
+
+    /** Return a copy of the 16 bytes in given block. */
+    public byte[] getBlock(int block)
+    {
+        byte[] bytes = new byte[16];
+        System.arraycopy(data, block * 16, bytes, 0, 16);
+        return bytes;
+    }
+
+    /** Return MI_OK if given block was read, else a MI_ error code. */
+    public int getStatus(int block)
+    {
+        return status[block];
+    }
+
+    /** Return true if all blocks were read successfully. */
+    public boolean isComplete()
+    {
+        for (int s: status)
+            if (s != RaspRC522.MI_OK)
+                return false;
+        return true;
+    }
+
+    /**
+     * Record result for a block.
+     *
+     * @param block Block address.
+     * @param blockStatus MI_OK or a MI_ error code.
+     * @param bytes Block data, only used if blockStatus is MI_OK.
+     */
+    void setBlock(int block, int blockStatus, byte[] bytes)
+    {
+        status[block] = blockStatus;
+        if (blockStatus == RaspRC522.MI_OK)
+            System.arraycopy(bytes, 0, data, block * 16, 16);
+    }
+}
@@ -0,0 +1,73 @@
+package com.liangyuen.pi4j_rc522;
+
+/**
+ * Table driven ISO/IEC 14443-3 CRC_A, as computed by the MFRC522
+ * CalcCRC command with the ModeReg CRCPreset set to 6363h.
+ *
+ * The CRC is sent over the air low byte first.
+ */
+public final class CrcA
+{
+    private static final int PRESET = 0x6363;
+
+    /** CRC-16/CCITT polynomial x^16 + x^12 + x^5 + 1, bit reversed. */
+    private static final int POLYNOMIAL = 0x8408;
+
+    private static final int[] TABLE = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i += 1) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit += 1)
+                crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+            TABLE[i] = crc;
+        }
+    }
+
+    private CrcA()
+    {
+    }
+
+    /**
+     * Compute CRC_A over part of an array.
+     *
+     * @param data Bytes to checksum.
+     * @param offset Index of first byte.
+     * @param length Number of bytes.
+     * @return 16-bit CRC.
+     */
+    public static int compute(byte[] data, int offset, int length)
+    {
+        int crc = PRESET;
+        for (int i = offset; i < offset + length; i += 1)
+            crc = (crc >>> 8) ^ TABLE[(crc ^ data[i]) & 0xFF];
+        return crc;
+    }
+
+    /**
+     * Compute CRC_A over the first length bytes in data and store it
+     * in data[length] and data[length + 1].
+     */
+    public static void append(byte[] data, int length)
+    {
+        int crc = compute(data, 0, length);
+        data[length] = (byte) crc;
+        data[length + 1] = (byte) (crc >> 8);
+    }
+
+    /**
+     * Check the CRC_A in the last two bytes of a frame.
+     *
+     * @param data Frame data.
+     * @param length Frame length, including the CRC.
+     * @return true if CRC is correct.
+     */
+    public static boolean check(byte[] data, int length)
+    {
+        if (length < 3)
+            return false;
+        int crc = compute(data, 0, length - 2);
+        return data[length - 2] == (byte) crc
+            && data[length - 1] == (byte) (crc >> 8);
+    }
+}
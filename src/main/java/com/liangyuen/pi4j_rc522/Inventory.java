@@ -0,0 +1,90 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The cards found by RaspRC522.inventory(), in the order they were
+ * selected, together with timings.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public final class Inventory
+{
+    private final List<Uid> uids = new ArrayList<Uid>();
+    private final List<Long> times = new ArrayList<Long>();
+    private long duration = 0;
+    private int collisions = 0;
+    private int failures = 0;
+
+    Inventory()
+    {
+    }
+
+    /** Record a card selected at given time since start, nanoseconds. */
+    void add(Uid uid, long elapsed)
+    {
+        uids.add(uid);
+        times.add(elapsed);
+    }
+
+    /** Record the end of the inventory. */
+    void finish(long duration, int collisions, int failures)
+    {
+        this.duration = duration;
+        this.collisions = collisions;
+        this.failures = failures;
+    }
+
+    /** Return the UIDs found, in the order they were selected. */
+    public List<Uid> getUids()
+    {
+        return Collections.unmodifiableList(uids);
+    }
+
+    /** Return number of cards found. */
+    public int size()
+    {
+        return uids.size();
+    }
+
+    /**
+     * Return the time from start of the inventory until card i was
+     * selected, nanoseconds.
+     */
+    public long getTime(int i)
+    {
+        return times.get(i);
+    }
+
+    /** Return total duration of the inventory, nanoseconds. */
+    public long getDuration()
+    {
+        return duration;
+    }
+
+    /** Return number of bit collisions resolved. */
+    public int getCollisionCount()
+    {
+        return collisions;
+    }
+
+    /** Return number of failed anticollision or select attempts. */
+    public int getFailureCount()
+    {
+        return failures;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < uids.size(); i += 1)
+            sb.append(String.format("%s at %.1f ms%n", uids.get(i),
+                                    times.get(i) / 1e6));
+        return sb.append(String.format(
+            "%d cards in %.1f ms, %d collisions, %d failures",
+            uids.size(), duration / 1e6, collisions, failures)).toString();
+    }
+}
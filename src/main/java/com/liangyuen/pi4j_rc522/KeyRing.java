@@ -0,0 +1,169 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A set of candidate MIFARE Classic keys used by RaspRC522.authSector().
+ *
+ * Keys are tried in the order they are added. The key which worked for
+ * a (UID, sector) pair is remembered in a LRU cache so that the next
+ * authentication of the same sector on the same card is done using
+ * the right key on the first try.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class KeyRing
+{
+    /** An authentication mode (key A or key B) together with a key. */
+    public static final class Key
+    {
+        private final byte mode;
+        private final byte[] key;
+
+        /**
+         * Create a key.
+         *
+         * @param mode RaspRC522.PICC_AUTHENT1A or PICC_AUTHENT1B.
+         * @param key Six bytes key.
+         */
+        public Key(byte mode, byte[] key)
+        {
+            if (mode != RaspRC522.PICC_AUTHENT1A
+                && mode != RaspRC522.PICC_AUTHENT1B)
+            {
+                throw new IllegalArgumentException("Bad authentication mode");
+            }
+            if (key.length != 6)
+                throw new IllegalArgumentException("Key must be 6 bytes");
+            this.mode = mode;
+            this.key = key.clone();
+        }
+
+        /** Return PICC_AUTHENT1A or PICC_AUTHENT1B. */
+        public byte getMode()
+        {
+            return mode;
+        }
+
+        /** Return the six bytes key. */
+        public byte[] getKey()
+        {
+            return key.clone();
+        }
+
+        /** The key bytes, not copied. */
+        byte[] bytes()
+        {
+            return key;
+        }
+    }
+
+    /** Cache key: UID without any BCC and a sector. */
+    private static final class SectorId
+    {
+        private final byte[] uid;
+        private final int sector;
+
+        SectorId(byte[] uid, int sector)
+        {
+            this.uid = uid.length == 5 ? Arrays.copyOf(uid, 4) : uid.clone();
+            this.sector = sector;
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            if (!(other instanceof SectorId))
+                return false;
+            SectorId that = (SectorId) other;
+            return sector == that.sector && Arrays.equals(uid, that.uid);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Arrays.hashCode(uid) * 31 + sector;
+        }
+    }
+
+    public static final int DEFAULT_CACHE_SIZE = 1024;
+
+    private final List<Key> keys = new ArrayList<Key>();
+    private final Map<SectorId, Key> cache;
+
+    /** Create an empty key ring with a cache of DEFAULT_CACHE_SIZE. */
+    public KeyRing()
+    {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Create an empty key ring.
+     *
+     * @param cacheSize Max number of (UID, sector) entries remembered,
+     *                  0 disables the cache.
+     */
+    public KeyRing(final int cacheSize)
+    {
+        if (cacheSize < 0)
+            throw new IllegalArgumentException("Negative cache size");
+        cache = new LinkedHashMap<SectorId, Key>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SectorId, Key> e)
+            {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Add a candidate key, tried after the keys already added.
+     *
+     * @param mode RaspRC522.PICC_AUTHENT1A or PICC_AUTHENT1B.
+     * @param key Six bytes key.
+     * @return this key ring.
+     */
+    public KeyRing addKey(byte mode, byte[] key)
+    {
+        keys.add(new Key(mode, key));
+        return this;
+    }
+
+    /** Return the candidate keys in the order they are tried. */
+    public List<Key> getKeys()
+    {
+        return Collections.unmodifiableList(keys);
+    }
+
+    /**
+     * Return the key which last worked for given sector on given card,
+     * or null if unknown.
+     */
+    public Key getCachedKey(byte[] uid, int sector)
+    {
+        return cache.get(new SectorId(uid, sector));
+    }
+
+    /** Drop all remembered keys. */
+    public void clearCache()
+    {
+        cache.clear();
+    }
+
+    /** Record that key worked for given sector on given card. */
+    void remember(byte[] uid, int sector, Key key)
+    {
+        cache.put(new SectorId(uid, sector), key);
+    }
+
+    /** Drop a remembered key which no longer works. */
+    void forget(byte[] uid, int sector)
+    {
+        cache.remove(new SectorId(uid, sector));
+    }
+}
@@ -0,0 +1,113 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of latencies with power of two buckets:
+ * bucket 0 holds latencies below 1 us, bucket i latencies from 2^(i-1)
+ * up to 2^i us. The last bucket also holds everything above.
+ *
+ * record() can be called from any number of threads without locking.
+ * The getters read the buckets one at a time and may see a few
+ * concurrent records only partially.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public final class LatencyHistogram
+{
+    /** Number of buckets, the last one starting at about 1 s. */
+    public static final int BUCKETS = 22;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /** Return bucket for a latency, microseconds. */
+    static int bucket(long micros)
+    {
+        if (micros <= 0)
+            return 0;
+        return Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+    }
+
+    /** Record a latency, nanoseconds. */
+    public void record(long nanos)
+    {
+        long micros = nanos / 1000;
+        buckets.incrementAndGet(bucket(micros));
+        count.increment();
+        sum.add(micros);
+        long old = max.get();
+        while (micros > old && !max.compareAndSet(old, micros))
+            old = max.get();
+    }
+
+    /** Return number of recorded latencies. */
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /** Return mean latency, microseconds, 0 if nothing recorded. */
+    public long getMean()
+    {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    /** Return largest latency recorded, microseconds. */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Return an upper bound for the latency below which a fraction of
+     * the recorded latencies are, microseconds; the upper limit of the
+     * bucket holding the percentile, but never above getMax().
+     *
+     * @param fraction 0.0 - 1.0, e. g. 0.99 for the 99th percentile.
+     */
+    public long getPercentile(double fraction)
+    {
+        if (fraction < 0.0 || fraction > 1.0)
+            throw new IllegalArgumentException("Bad fraction: " + fraction);
+        long[] counts = getBuckets();
+        long total = 0;
+        for (long c: counts)
+            total += c;
+        if (total == 0)
+            return 0;
+        long wanted = (long) Math.ceil(fraction * total);
+        long seen = 0;
+        int i = 0;
+        for (; i < BUCKETS - 1; i += 1) {
+            seen += counts[i];
+            if (seen >= wanted && seen > 0)
+                break;
+        }
+        return Math.min(1L << i, getMax());
+    }
+
+    /** Return a copy of the bucket counts. */
+    public long[] getBuckets()
+    {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i += 1)
+            counts[i] = buckets.get(i);
+        return counts;
+    }
+
+    /** Clear all data. Records running concurrently may be lost. */
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i += 1)
+            buckets.set(i, 0);
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+}
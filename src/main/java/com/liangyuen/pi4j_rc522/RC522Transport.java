@@ -0,0 +1,59 @@
+package com.liangyuen.pi4j_rc522;
+
+/**
+ * The link between RaspRC522 and the MFRC522 chip: the SPI bus and the
+ * GPIO pins wired to the reader.
+ *
+ * The default implementation is WiringPiTransport which talks to real
+ * hardware. SimulatedRC522 implements the same interface in software and
+ * can be used when no reader is attached.
+ */
+public interface RC522Transport
+{
+    /**
+     * Do a full duplex SPI transfer within one chip select frame.
+     *
+     * @param data Bytes to send. On return, holds the bytes received.
+     * @param length Number of bytes in data to transfer.
+     * @return Number of bytes transferred, or -1 on errors.
+     */
+    int transfer(byte[] data, int length);
+
+    /**
+     * Drive the reset (NRSTPD) pin.
+     *
+     * @param high If true, the chip is powered up, otherwise it's kept
+     *             in hard power down.
+     */
+    void setResetPin(boolean high);
+
+    /**
+     * Change the SPI clock, e.g. while calibrating with SpiCalibrator.
+     *
+     * @param speed SPI clock, Hz.
+     * @return true if the speed was changed, false if not supported.
+     */
+    default boolean setSpeed(int speed)
+    {
+        return false;
+    }
+
+    /** Return true if the reader's IRQ pin is connected and usable. */
+    default boolean hasIrq()
+    {
+        return false;
+    }
+
+    /**
+     * Wait until the IRQ pin is asserted. Returns at once if it already
+     * is.
+     *
+     * @param timeoutNanos Max time to wait.
+     * @return true if IRQ is asserted, false on timeout or if there is
+     *         no IRQ pin.
+     */
+    default boolean waitForIrq(long timeoutNanos)
+    {
+        return false;
+    }
+}
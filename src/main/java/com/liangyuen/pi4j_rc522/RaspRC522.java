@@ -1,7 +1,9 @@
 package com.liangyuen.pi4j_rc522;
 
-import com.pi4j.wiringpi.Gpio;
-import com.pi4j.wiringpi.Spi;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  *
@@ -20,8 +22,15 @@ import com.pi4j.wiringpi.Spi;
  *   - read() and write() can be done on decrypted data after authCard()
  *   - stopCrypto() restores the encryption state to encrypted and loocked.
  *
- * The module is unsynchronized and fails badly if there is more than one
- * instance.
+ * All communication with the chip goes through a RC522Transport. By
+ * default this is a WiringPiTransport for real hardware; a
+ * SimulatedRC522 can be used instead to run without a reader.
+ *
+ * An instance is unsynchronized and must only be used by one thread at a
+ * time. Several instances, each with its own transport, can be used
+ * concurrently; WiringPiTransport serializes access to the shared SPI bus
+ * and supports GPIO driven chip selects. ReaderCoordinator polls a set
+ * of readers.
  *
  * Created by Liang on 2016/3/17,originated from  Python RC522
  *
@@ -35,10 +44,74 @@ import com.pi4j.wiringpi.Spi;
 
 public class RaspRC522
 {
+    /**
+     * Where CRC_A for outgoing frames is computed:
+     *   - HOST: Table driven computation in Java, no SPI traffic.
+     *   - CHIP: Using the MFRC522 CalcCRC command.
+     *   - VERIFY: On host, cross-checked with CalcCRC on each frame.
+     *   - HARDWARE: The chip appends CRC when transmitting (TxCRCEn) and
+     *     checks and strips it when receiving (RxCRCEn). A bad CRC in an
+     *     answer is reported as MI_CRCERR.
+     */
+    public enum CrcMode {HOST, CHIP, VERIFY, HARDWARE};
+
+    /**
+     * Card operations with a timeout of their own, see setTimeout().
+     * Timeouts are not keyed by PICC_ command byte since these overlap
+     * between card families: PICC_GET_VERSION and PICC_AUTHENT1A are
+     * both 0x60.
+     *   - REQUEST: REQA and WUPA.
+     *   - SELECT: Anticollision and select, all cascade levels.
+     *   - VALUE: Decrement, increment and restore.
+     */
+    public enum Operation {
+        REQUEST, SELECT, AUTHENT, READ, FAST_READ, GET_VERSION, WRITE,
+        VALUE, TRANSFER, HALT
+    };
+
+    /** Answer from card to last frame, reused for all frames. */
+    private static final class Response
+    {
+        /** Received bytes. */
+        final byte[] data = new byte[MAX_RESPONSE_SIZE];
+        /** Number of bytes in data. */
+        int length;
+        /** Number of valid bits in data. */
+        int bits;
+        /** ErrorReg value after the command. */
+        byte error;
+    }
 
-    private final int MAX_LEN = 16;
+    private static final int FIFO_SIZE = 64;
+    /**
+     * Largest answer received, CRC included. Answers larger than the FIFO
+     * are drained while they arrive, see writeCard().
+     */
+    public static final int MAX_RESPONSE_SIZE = 1024;
+    /**
+     * WaterLevelReg value: HiAlert is raised when the FIFO holds
+     * FIFO_SIZE - WATER_LEVEL bytes, leaving room for WATER_LEVEL more
+     * (about 2.7 ms at 106 kbit/s) while the host drains it.
+     */
+    private static final int WATER_LEVEL = 32;
+    /** Timer tick with TPrescalerReg = 0xA9: 339 / 13.56 MHz. */
+    private static final int TIMER_TICK_NS = 25000;
+    /** Extra wall-clock time allowed beyond the chip timer. */
+    private static final long TIMEOUT_GUARD_NS = 5000000L;
+    /** Wall-clock limit for the CalcCRC command. */
+    private static final long CRC_TIMEOUT_NS = 5000000L;
+    private static final ThreadMXBean THREAD_BEAN =
+        ManagementFactory.getThreadMXBean();
     public static final int DEFAULT_RST_PIN    = 22;
-    public static final int DEFAULT_SPEED      = 50000;
+    /**
+     * SPI clock used by the constructors without a transport, Hz. Works
+     * with most wirings; use SpiCalibrator to find a faster one.
+     */
+    public static final int DEFAULT_SPEED      = 1000000;
+    public static final int DEFAULT_TIMEOUT    = 25000;
+    public static final int CLASSIC_1K_SECTORS = 16;
+    public static final int CLASSIC_4K_SECTORS = 40;
+    public static final int MAX_TIMEOUT        = 65536 * 25;
 
 
     public static final byte PCD_IDLE          = (byte) 0x00;
@@ -53,6 +126,8 @@ public class RaspRC522
     public  static final byte PICC_REQALL      = (byte) 0x52;
     public  static final byte PICC_ANTICOLL    = (byte) 0x93;
     public  static final byte PICC_SElECTTAG   = (byte) 0x93;
+    public  static final byte PICC_ANTICOLL2   = (byte) 0x95;
+    public  static final byte PICC_ANTICOLL3   = (byte) 0x97;
     public  static final byte PICC_AUTHENT1A   = (byte) 0x60;
     public  static final byte PICC_AUTHENT1B   = (byte) 0x61;
     public  static final byte PICC_READ        = (byte) 0x30;
@@ -62,10 +137,13 @@ public class RaspRC522
     public  static final byte PICC_RESTORE     = (byte) 0xC2;
     public  static final byte PICC_TRANSFER    = (byte) 0xB0;
     public  static final byte PICC_HALT        = (byte) 0x50;
+    public  static final byte PICC_GET_VERSION = (byte) 0x60;
+    public  static final byte PICC_FAST_READ   = (byte) 0x3A;
 
     public static final int MI_OK              = 0;
     public static final int MI_NOTAGERR        = 1;
     public static final int MI_ERR             = 2;
+    public static final int MI_CRCERR          = 3;
 
     public static final byte Reserved00        = 0x00;
     public static final byte CommandReg        = 0x01;
@@ -113,7 +191,7 @@ public class RaspRC522
     public static final byte ModGsPReg         = 0x29;
     public static final byte TModeReg          = 0x2A;
     public static final byte TPrescalerReg     = 0x2B;
-    pub/speelic static final byte TReloadRegH       = 0x2C;
+    public static final byte TReloadRegH       = 0x2C;
     public static final byte TReloadRegL       = 0x2D;
     public static final byte TCounterValueRegH = 0x2E;
     public static final byte TCounterValueRegL = 0x2F;
@@ -135,9 +213,72 @@ public class RaspRC522
     public static final byte Reserved33        = 0x3E;
     public static final byte Reserved34        = 0x3F;
 
-    private int rstPinNumber = DEFAULT_RST_PIN;
-    private int speed = DEFAULT_SPEED;
-    private int spiChannel = 0;
+    /**
+     * Configuration registers which only change when written by the
+     * driver. Their values are kept in shadow[].
+     */
+    private static final boolean[] SHADOWED = shadowedRegisters(
+        CommIEnReg, DivlEnReg, WaterLevelReg, BitFramingReg, ModeReg,
+        TxModeReg, RxModeReg, TxControlReg, TxAutoReg, TxSelReg, RxSelReg,
+        RxThresholdReg, DemodReg, MifareReg, SerialSpeedReg, ModWidthReg,
+        RFCfgReg, GsNReg, CWGsPReg, ModGsPReg, TModeReg, TPrescalerReg,
+        TReloadRegH, TReloadRegL);
+
+    /** SEL codes for cascade levels 1-3. */
+    private static final byte[] SEL =
+        {PICC_ANTICOLL, PICC_ANTICOLL2, PICC_ANTICOLL3};
+    private static final byte CASCADE_TAG = (byte) 0x88;
+    private static final int SAK_CASCADE = 0x04;
+
+    private final RC522Transport transport;
+    private long spiTransfers = 0;
+    private Rc522Metrics metrics = new Rc522Metrics();
+    private CrcMode crcMode = CrcMode.HOST;
+    private boolean txCrc = false;
+    private boolean rxCrc = false;
+    private boolean irqMode = false;
+    private long completionPolls = 0;
+    private long completionCpuTime = 0;
+    private boolean cpuAccounting = false;
+    /** Timeout for each Operation, by ordinal. */
+    private final int[] timeouts = new int[Operation.values().length];
+    private boolean transceiving = false;
+    /** Last value of SHADOWED registers, -1 if unknown. */
+    private final int[] shadow = new int[64];
+
+    /** SPI transfer buffer: address byte + a full FIFO. */
+    private final byte[] spiBuff = new byte[FIFO_SIZE + 1];
+    /** Time field is kept off, and then on before first REQA, in inventory(). */
+    private static final long FIELD_RESET_NANOS = 5000000;
+
+    /** Max number of failed selects in inventory(). */
+    private static final int MAX_INVENTORY_RETRIES = 3;
+
+    /** Number of bit collisions resolved by anticollision(). */
+    private int collisions = 0;
+
+    /** Outgoing frame buffer. */
+    private final byte[] frame = new byte[FIFO_SIZE];
+    private final Response response = new Response();
+    /** setupTranscieve() out-parameter used by reselect(). */
+    private final int[] backBits = new int[1];
+
+    /** Optional MIFARE Classic block cache, see setBlockCache(). */
+    private BlockCache blockCache = null;
+    /**
+     * Last authCard() while a cache is used: card, sector, block and
+     * key. authKey is null if no sector is authenticated.
+     */
+    private byte[] authUid = null;
+    private int authSector = -1;
+    private int authBlock = 0;
+    private KeyRing.Key authKey = null;
+    /** Key of the last authCard() using a cache, reused while unchanged. */
+    private KeyRing.Key lastKey = null;
+    /** UID of the card last selected, dropped from the cache by halt(). */
+    private byte[] selectedUid = null;
+    /** Buffer for blocks read ahead into the cache. */
+    private final byte[] prefetchBuff = new byte[16];
 
     /**
      * Create a RaspRC532 using speed = DEFAULT_SPEED  and DEFAULT_RST_PIN reset
@@ -170,38 +311,260 @@ public class RaspRC522
      */
     public RaspRC522(int speed, int resetPinNumber)
     {
-	this.rstPinNumber =
-	    resetPinNumber == -1 ? DEFAULT_RST_PIN : resetPinNumber;
-        if (speed < 500000 || speed > 32000000)
-            throw new IllegalArgumentException("Speed out of range");
-        this.speed = speed;
-        Gpio.wiringPiSetup();           //Enable wiringPi pin schema
-        int fd = Spi.wiringPiSPISetup(spiChannel, speed);
-        if (fd <= -1)
-            throw new IllegalStateException("SPI communication setup error");
-        Gpio.pinMode(rstPinNumber, Gpio.OUTPUT);
-        Gpio.digitalWrite(rstPinNumber, Gpio.HIGH);
+        this(new WiringPiTransport(
+            0, speed, resetPinNumber == -1 ? DEFAULT_RST_PIN : resetPinNumber));
+    }
+
+    /**
+     * Create a RaspRC522 which waits for command completion on the IRQ
+     * pin, see setIrqMode().
+     *
+     * @param speed transfer speed as defined by com.pi4j.io.spi.imp,
+     *              in range  500kHz - 32MHz.
+     * @param resetPinNumber The GPIO pin wired to the reset pin. If -1,
+     *                       DEFAULT_RST_PIN is used.
+     * @param irqPinNumber The GPIO pin wired to the IRQ pin.
+     */
+    public RaspRC522(int speed, int resetPinNumber, int irqPinNumber)
+    {
+        this(irqTransport(speed, resetPinNumber, irqPinNumber));
+        setIrqMode(true);
+    }
+
+    private static RC522Transport
+    irqTransport(int speed, int resetPinNumber, int irqPinNumber)
+    {
+        WiringPiTransport transport = new WiringPiTransport(
+            0, speed, resetPinNumber == -1 ? DEFAULT_RST_PIN : resetPinNumber);
+        transport.enableIrq(irqPinNumber);
+        return transport;
+    }
+
+    /**
+     * Create a RaspRC522 using given transport to talk to the chip.
+     *
+     * @param transport SPI and GPIO link, hardware or simulated.
+     */
+    public RaspRC522(RC522Transport transport)
+    {
+        this.transport = transport;
+        timeouts[Operation.REQUEST.ordinal()] = 1000;
+        timeouts[Operation.SELECT.ordinal()] = 5000;
+        timeouts[Operation.AUTHENT.ordinal()] = 5000;
+        timeouts[Operation.READ.ordinal()] = 5000;
+        timeouts[Operation.FAST_READ.ordinal()] = 5000;
+        timeouts[Operation.GET_VERSION.ordinal()] = 5000;
+        timeouts[Operation.WRITE.ordinal()] = 10000;
+        timeouts[Operation.VALUE.ordinal()] = 1000;
+        timeouts[Operation.TRANSFER.ordinal()] = 10000;
+        timeouts[Operation.HALT.ordinal()] = 1000;
+        transport.setResetPin(true);
         reset();
-        writeRC522(TModeReg, (byte)0x8D);
-        writeRC522(TPrescalerReg, (byte)0x3E);
-        writeRC522(TReloadRegL, (byte) 30);
-        writeRC522(TReloadRegH, (byte) 0);
+        writeRC522(TModeReg, (byte)0x80);
+        writeRC522(TPrescalerReg, (byte)0xA9);
+        setTimer(DEFAULT_TIMEOUT);
         writeRC522(TxAutoReg, (byte) 0x40);
         writeRC522(ModeReg, (byte) 0x3D);
+        writeRC522(WaterLevelReg, (byte) WATER_LEVEL);
         antennaOn();
     }
 
     private void reset()
     {
+        transceiving = false;
         writeRC522(CommandReg, PCD_RESETPHASE);
+        invalidateShadow();
+    }
+
+    /**
+     * Return number of SPI transfers done since creation or last call
+     * to resetSpiTransferCount(). Each register access and each burst
+     * FIFO read or write counts as one transfer.
+     */
+    public long getSpiTransferCount()
+    {
+        return spiTransfers;
+    }
+
+    /** Reset the counter returned by getSpiTransferCount(). */
+    public void resetSpiTransferCount()
+    {
+        spiTransfers = 0;
+    }
+
+    /**
+     * Return the metrics recorded by this reader: SPI traffic, command
+     * latencies, timeouts, ErrorReg bits and frame status. Use
+     * Rc522Metrics.register() to publish them over JMX.
+     */
+    public Rc522Metrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Record metrics in given instance instead, e. g. one shared by
+     * all readers to get totals.
+     */
+    public void setMetrics(Rc522Metrics metrics)
+    {
+        if (metrics == null)
+            throw new IllegalArgumentException("null metrics");
+        this.metrics = metrics;
+    }
+
+    /**
+     * Use a cache for MIFARE Classic blocks, see BlockCache. A read() in
+     * the sector authenticated by authCard() reads the whole sector and
+     * repeated reads are served from the cache. Default is no cache.
+     *
+     * @param cache The cache, possibly shared with a CardPoller by
+     *              getBlockCache(), or null to disable caching.
+     */
+    public void setBlockCache(BlockCache cache)
+    {
+        blockCache = cache;
+        clearAuth();
+    }
+
+    /** Return the cache set by setBlockCache(), or null. */
+    public BlockCache getBlockCache()
+    {
+        return blockCache;
+    }
+
+    /** Set how CRC_A is computed, default is CrcMode.HOST. */
+    public void setCrcMode(CrcMode mode)
+    {
+        crcMode = mode;
+    }
+
+    /** Return current CRC mode. */
+    public CrcMode getCrcMode()
+    {
+        return crcMode;
+    }
+
+    /**
+     * Select how command completion is detected. If on, the chip drives
+     * its IRQ pin (active low, push-pull) when the awaited interrupt
+     * request is set and the driver sleeps until the pin is asserted.
+     * If off, CommIrqReg/DivIrqReg are busy polled over SPI.
+     *
+     * @throws IllegalStateException if the transport has no IRQ pin.
+     */
+    public void setIrqMode(boolean on)
+    {
+        if (on && !transport.hasIrq())
+            throw new IllegalStateException("Transport has no IRQ pin");
+        irqMode = on;
+        writeRC522(DivlEnReg, (byte) (on ? 0x80 : 0x00));
+    }
+
+    /** Return true if IRQ pin is used to detect command completion. */
+    public boolean getIrqMode()
+    {
+        return irqMode;
+    }
+
+    /**
+     * Set the time a card has to answer a command. The timeout is
+     * enforced by the MFRC522 timer, started when the frame has been
+     * sent; a missing answer is reported as MI_NOTAGERR (transceive) or
+     * MI_ERR (authentication). A wall-clock guard a few milliseconds
+     * longer covers a chip which never reports.
+     *
+     * @param operation The operation the timeout applies to.
+     * @param micros Timeout in microseconds, 25 - MAX_TIMEOUT. Rounded up
+     *               to a multiple of 25 us.
+     */
+    public void setTimeout(Operation operation, int micros)
+    {
+        if (micros < 25 || micros > MAX_TIMEOUT)
+            throw new IllegalArgumentException("Timeout out of range");
+        timeouts[operation.ordinal()] = micros;
+    }
+
+    /** Return timeout for given operation, microseconds. */
+    public int getTimeout(Operation operation)
+    {
+        return timeouts[operation.ordinal()];
+    }
+
+    /** Program the timer reload value, if changed. */
+    private void setTimer(int micros)
+    {
+        int reload = (int) (((long) micros * 1000 + TIMER_TICK_NS - 1)
+                            / TIMER_TICK_NS) - 1;
+        if (reload < 1)
+            reload = 1;
+        writeRC522(TReloadRegH, (byte) (reload >> 8));
+        writeRC522(TReloadRegL, (byte) reload);
+    }
+
+    /**
+     * Return number of CommIrqReg/DivIrqReg reads done while waiting for
+     * command completion.
+     */
+    public long getCompletionPolls()
+    {
+        return completionPolls;
+    }
+
+    /**
+     * Return CPU time used by calling threads while waiting for command
+     * completion, in nanoseconds. Zero unless enabled using
+     * setCpuAccounting() and supported by the JVM.
+     */
+    public long getCompletionCpuTime()
+    {
+        return completionCpuTime;
+    }
+
+    /**
+     * Measure CPU time used while waiting for completion, reported by
+     * getCompletionCpuTime(). Off by default since it reads the thread
+     * CPU clock twice per command, a system call on most platforms.
+     */
+    public void setCpuAccounting(boolean enabled)
+    {
+        cpuAccounting = enabled;
+    }
+
+    /** Reset the getCompletionPolls() and getCompletionCpuTime() data. */
+    public void resetCompletionStats()
+    {
+        completionPolls = 0;
+        completionCpuTime = 0;
+    }
+
+    /**
+     * Run a full duplex transfer of the first len bytes in spiBuff on
+     * the SPI bus, counting the calls.
+     */
+    private int spiTransfer(int len)
+    {
+        spiTransfers += 1;
+        int result = transport.transfer(spiBuff, len);
+        metrics.spiTransfer(len, result == -1);
+        return result;
     }
 
+    /**
+     * Write a register. Writes to SHADOWED registers which would not
+     * change the value are skipped.
+     */
     private void writeRC522(byte address, byte value)
     {
-        byte data[] = new byte[2];
-        data[0] = (byte) ((address << 1) & 0x7E);
-        data[1] = value;
-        int result = Spi.wiringPiSPIDataRW(spiChannel, data);
+        if (SHADOWED[address])
+        {
+            if (shadow[address] == (value & 0xFF))
+                return;
+            shadow[address] = value & 0xFF;
+        }
+        spiBuff[0] = (byte) ((address << 1) & 0x7E);
+        spiBuff[1] = value;
+        int result = spiTransfer(2);
         if (result == -1)
 	{
             System.out.println(
@@ -212,24 +575,90 @@ public class RaspRC522
 
     private byte readRC522(byte address)
     {
-        byte data[] = new byte[2];
-        data[0] = (byte) (((address << 1) & 0x7E) | 0x80);
-        data[1] = 0;
-        int result = Spi.wiringPiSPIDataRW(spiChannel, data);
+        spiBuff[0] = (byte) (((address << 1) & 0x7E) | 0x80);
+        spiBuff[1] = 0;
+        int result = spiTransfer(2);
         if (result == -1)
             System.out.println("Device read error,address=" + address);
-        return data[1];
+        return spiBuff[1];
     }
 
-    private void setBitMask(byte address, byte mask)
+    /**
+     * Write len bytes to the FIFO in one SPI transfer. The MFRC522 keeps
+     * the address sent in the first byte, so all following bytes in the
+     * same chip-select frame end up in FIFODataReg.
+     */
+    private void writeFIFO(byte[] data, int len)
+    {
+        if (len <= 0)
+            return;
+        spiBuff[0] = (byte) ((FIFODataReg << 1) & 0x7E);
+        System.arraycopy(data, 0, spiBuff, 1, len);
+        if (spiTransfer(len + 1) == -1)
+            System.out.println("Device FIFO write error,len=" + len);
+    }
+
+    /**
+     * Read len bytes from the FIFO in one SPI transfer by repeating the
+     * FIFODataReg read address; each byte shifted out carries the data
+     * for the previous address byte.
+     */
+    private void readFIFO(byte[] back_data, int len)
+    {
+        readFIFO(back_data, 0, len);
+    }
+
+    /** Read len bytes from the FIFO into back_data starting at offset. */
+    private void readFIFO(byte[] back_data, int offset, int len)
     {
+        if (len <= 0)
+            return;
+        byte address = (byte) (((FIFODataReg << 1) & 0x7E) | 0x80);
+        for (int i = 0; i < len; i++)
+            spiBuff[i] = address;
+        spiBuff[len] = 0;
+        if (spiTransfer(len + 1) == -1)
+            System.out.println("Device FIFO read error,len=" + len);
+        System.arraycopy(spiBuff, 1, back_data, offset, len);
+    }
+
+    /**
+     * Read a register, using the shadow value of SHADOWED registers
+     * when known.
+     */
+    private byte readShadowed(byte address)
+    {
+        if (SHADOWED[address] && shadow[address] != -1)
+            return (byte) shadow[address];
         byte value = readRC522(address);
+        if (SHADOWED[address])
+            shadow[address] = value & 0xFF;
+        return value;
+    }
+
+    /** Forget all shadow values, used after the chip is reset. */
+    private void invalidateShadow()
+    {
+        Arrays.fill(shadow, -1);
+    }
+
+    private static boolean[] shadowedRegisters(byte... addresses)
+    {
+        boolean[] shadowed = new boolean[64];
+        for (byte address: addresses)
+            shadowed[address] = true;
+        return shadowed;
+    }
+
+    private void setBitMask(byte address, byte mask)
+    {
+        byte value = readShadowed(address);
         writeRC522(address, (byte)(value|mask));
     }
 
     private void clearBitMask(byte address, byte mask)
     {
-        byte value = readRC522(address);
+        byte value = readShadowed(address);
         writeRC522(address, (byte)( value&(~mask)));
     }
 
@@ -245,35 +674,209 @@ public class RaspRC522
         clearBitMask(TxControlReg,(byte) 0x03);
     }
 
-    private void calculateCRC(byte[] data)
+    private static long threadCpuTime()
+    {
+        if (!THREAD_BEAN.isCurrentThreadCpuTimeSupported())
+            return 0;
+        return THREAD_BEAN.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Wait until any bit in mask is set in an interrupt request register.
+     * Sleeps on the IRQ pin in IRQ mode, else polls the register.
+     *
+     * @param address CommIrqReg or DivIrqReg.
+     * @param mask Awaited interrupt request bits, which must be the only
+     *             ones enabled in IRQ mode.
+     * @param timeout Wall-clock limit, nanoseconds.
+     * @return Last value read from the register, or -1 on timeout.
+     */
+    private int waitIrq(byte address, int mask, long timeout)
+    {
+        long cpu = cpuAccounting ? threadCpuTime() : 0;
+        long deadline = System.nanoTime() + timeout;
+        int n = -1;
+        if (irqMode)
+        {
+            while (true)
+            {
+                boolean asserted =
+                    transport.waitForIrq(deadline - System.nanoTime());
+                n = readRC522(address) & 0xFF;
+                completionPolls += 1;
+                if ((n & mask) != 0)
+                    break;
+                if (!asserted || System.nanoTime() - deadline >= 0)
+                {
+                    n = -1;
+                    break;
+                }
+            }
+        }
+        else
+        {
+            while (true)
+            {
+                n = readRC522(address) & 0xFF;
+                completionPolls += 1;
+                if ((n & mask) != 0)
+                    break;
+                if (System.nanoTime() - deadline >= 0)
+                {
+                    n = -1;
+                    break;
+                }
+            }
+        }
+        if (cpuAccounting)
+            completionCpuTime += threadCpuTime() - cpu;
+        if (n == -1)
+            metrics.timeout();
+        return n;
+    }
+
+    /**
+     * Let the chip compute CRC_A over the first length bytes in data.
+     *
+     * @return The CRC, or -1 if the chip did not complete in time.
+     */
+    private int chipCRC(byte[] data, int length)
     {
-        int i,n;
-        clearBitMask(DivIrqReg, (byte)0x04);
-        setBitMask(FIFOLevelReg, (byte)0x80);
+        int n;
+        writeRC522(DivIrqReg, (byte)0x04);
+        writeRC522(FIFOLevelReg, (byte)0x80);           // Flush
+        if (irqMode)
+        {
+            writeRC522(CommIEnReg, (byte) 0x80);
+            writeRC522(DivlEnReg, (byte) 0x84);
+        }
 
-        for(i = 0; i < data.length - 2; i++)
-            writeRC522(FIFODataReg, data[i]);
+        writeFIFO(data, length);
+        transceiving = false;
+        long start = System.nanoTime();
         writeRC522(CommandReg, PCD_CALCCRC);
-        i = 255;
-        while (true)
+        n = waitIrq(DivIrqReg, 0x04, CRC_TIMEOUT_NS);
+        metrics.command(PCD_CALCCRC, System.nanoTime() - start);
+        if (irqMode)
+            writeRC522(DivlEnReg, (byte) 0x80);
+        if (n == -1)
+            return -1;
+        return (readRC522(CRCResultRegL) & 0xFF)
+            | ((readRC522(CRCResultRegM) & 0xFF) << 8);
+    }
+
+    /**
+     * Compute CRC_A over the first size - 2 bytes in data and store it
+     * in the following two bytes, as configured by setCrcMode().
+     * In VERIFY mode a mismatch is counted in the metrics, see
+     * Rc522Metrics.getCrcMismatches().
+     *
+     * @return MI_OK if successful, else MI_ERR.
+     */
+    private int calculateCRC(byte[] data, int size)
+    {
+        int length = size - 2;
+        int crc;
+        if (crcMode == CrcMode.CHIP)
         {
-            n = readRC522(DivIrqReg);
-            i--;
-            if ((i == 0) || ((n & 0x04) > 0))
-                break;
+            crc = chipCRC(data, length);
+            if (crc == -1)
+                return MI_ERR;
+        }
+        else
+        {
+            crc = CrcA.compute(data, 0, length);
+            if (crcMode == CrcMode.VERIFY && chipCRC(data, length) != crc)
+            {
+                metrics.crcMismatch();
+                return MI_ERR;
+            }
+        }
+        data[length] = (byte) crc;
+        data[length + 1] = (byte) (crc >> 8);
+        return MI_OK;
+    }
+
+    /**
+     * Enable or disable CRC handling in the chip for the next frames,
+     * writing TxModeReg and RxModeReg only when changed.
+     */
+    private void setCrcFraming(boolean tx, boolean rx)
+    {
+        if (tx != txCrc)
+        {
+            if (tx)
+                setBitMask(TxModeReg, (byte) 0x80);
+            else
+                clearBitMask(TxModeReg, (byte) 0x80);
+            txCrc = tx;
+        }
+        if (rx != rxCrc)
+        {
+            if (rx)
+                setBitMask(RxModeReg, (byte) 0x80);
+            else
+                clearBitMask(RxModeReg, (byte) 0x80);
+            rxCrc = rx;
+        }
+    }
+
+    /**
+     * Prepare the frame in the frame buffer whose last two bytes are
+     * reserved for CRC_A. In
+     * HARDWARE mode the chip appends the CRC and, if rx is set, checks
+     * and strips the CRC of the answer. Otherwise CRC is computed as
+     * configured by setCrcMode() and stored in the frame.
+     *
+     * @param size Frame size including two trailing bytes for the CRC.
+     * @param rx If true, answer carries a CRC.
+     * @return Number of bytes to send, or -1 on errors.
+     */
+    private int prepareCrcFrame(int size, boolean rx)
+    {
+        if (crcMode == CrcMode.HARDWARE)
+        {
+            setCrcFraming(true, rx);
+            return size - 2;
         }
-        data[data.length-2] = readRC522(CRCResultRegL);
-        data[data.length-1] = readRC522(CRCResultRegM);
+        setCrcFraming(false, false);
+        return calculateCRC(frame, size) == MI_OK ? size : -1;
     }
 
-    private int writeCard(byte command,byte [] data, int dataLen,
-	                  byte[] back_data, int[] back_bits, int[] backLen)
+    /**
+     * Run a command on the chip, storing any card answer in response.
+     *
+     * After a successful Transceive the chip stays in the Transceive
+     * command, waiting for the next StartSend. A following Transceive
+     * then only needs to clear the interrupt bits, flush the FIFO, load
+     * the frame and set StartSend; the CommIEnReg setup and the Idle and
+     * Transceive command writes are skipped.
+     *
+     * Answers larger than the FIFO are received in pieces: each time the
+     * FIFO reaches the water level HiAlertIRq is raised and the FIFO is
+     * drained while the rest of the frame is still arriving.
+     *
+     * The time from loading the frame until the chip reports completion
+     * and the status are recorded in metrics.
+     *
+     * @param command PCD_TRANSCEIVE or PCD_AUTHENT.
+     * @param data Frame to send.
+     * @param dataLen Number of bytes in data to send.
+     * @param timeout Time card has to answer, microseconds.
+     * @return MI_OK if successful, else an MI_ error code.
+     */
+    private int writeCard(byte command,byte [] data, int dataLen, int timeout)
     {
         int status = MI_ERR;
         byte irq = 0, irq_wait = 0, lastBits = 0;
-        int n = 0,i = 0;
-
-        backLen[0] = 0;
+        int n = 0;
+        int alert = 0;
+        int received = 0;
+
+        response.length = 0;
+        response.bits = 0;
+        response.error = 0;
+        long start = System.nanoTime();
         if (command == PCD_AUTHENT)
         {
             irq = 0x12;
@@ -283,73 +886,124 @@ public class RaspRC522
         {
             irq = 0x77;
             irq_wait = 0x30;
+            // HiAlertIRq, unless the frame sent already fills the FIFO.
+            if (dataLen < FIFO_SIZE - WATER_LEVEL)
+                alert = 0x08;
         }
 
-        writeRC522(CommIEnReg, (byte)(irq|0x80));
-        clearBitMask(CommIrqReg, (byte)0x80);
-        setBitMask(FIFOLevelReg, (byte)0x80);
+        // Shadowed: only sent when it changes, e.g. when the HiAlertIRq
+        // enable differs from the previous frame's.
+        if (irqMode)
+            writeRC522(CommIEnReg, (byte)(irq_wait|alert|0x81));
+        else
+            writeRC522(CommIEnReg, (byte)(irq|0x80));
+        if (command == PCD_TRANSCEIVE && transceiving)
+        {
+            writeRC522(CommIrqReg, (byte) 0x7F);        // Clear all
+            writeRC522(FIFOLevelReg, (byte) 0x80);      // Flush
+            setTimer(timeout);
+            writeFIFO(data, dataLen);
+        }
+        else
+        {
+            writeRC522(CommIrqReg, (byte) 0x7F);        // Clear all
+            writeRC522(FIFOLevelReg, (byte) 0x80);      // Flush
 
-        writeRC522(CommandReg, PCD_IDLE);
+            writeRC522(CommandReg, PCD_IDLE);
+            setTimer(timeout);
 
-        for(i = 0;i<dataLen;i++)
-            writeRC522(FIFODataReg, data[i]);
+            writeFIFO(data, dataLen);
 
-        writeRC522(CommandReg, command);
+            writeRC522(CommandReg, command);
+        }
+        transceiving = false;
         if (command == PCD_TRANSCEIVE)
             setBitMask(BitFramingReg, (byte)0x80);
 
-        i = 2000;
         while (true)
         {
-            n = readRC522(CommIrqReg);
-            i--;
-            if ((i == 0) || (n & 0x01) > 0 || (n & irq_wait) > 0)
-            {
-                //System.out.println("Write_Card i="+i+",n="+n);
+            n = waitIrq(CommIrqReg, irq_wait | alert | 0x01,
+                        timeout * 1000L + TIMEOUT_GUARD_NS);
+            if (n == -1 || (n & (irq_wait | 0x01)) != 0)
                 break;
-            }
+            // HiAlertIRq: drain the FIFO, then clear the request.
+            int level = readRC522(FIFOLevelReg) & 0x7F;
+            level = Math.min(level, response.data.length - received);
+            readFIFO(response.data, received, level);
+            received += level;
+            writeRC522(CommIrqReg, (byte) 0x08);
         }
         clearBitMask(BitFramingReg, (byte)0x80);
+        metrics.command(command, System.nanoTime() - start);
 
-        if (i != 0)
+        if (n != -1)
         {
-            if ((readRC522(ErrorReg) & 0x1B) == 0x00) {
-                status = MI_OK;
-                if ((n & irq & 0x01) > 0)
-                    status = MI_NOTAGERR;
+            byte error = readRC522(ErrorReg);
+            response.error = error;
+            metrics.errorReg(error);
+            // On a collision (CollErr) the bits up to the collision are
+            // valid and still read, but the status is MI_ERR.
+            if ((error & 0x13) == 0x00) {
+                status = (error & 0x08) == 0 ? MI_OK : MI_ERR;
+                if ((n & 0x01) != 0 && (n & irq_wait) == 0)
+                    status = MI_NOTAGERR;      // Timer fired, no answer
                 if (command == PCD_TRANSCEIVE) {
-                    n = readRC522(FIFOLevelReg);
+                    n = readRC522(FIFOLevelReg) & 0x7F;
                     lastBits = (byte) (readRC522(ControlReg) & 0x07);
                     if (lastBits != 0)
-                        back_bits[0] = (n - 1) * 8 + lastBits;
+                        response.bits = (received + n - 1) * 8 + lastBits;
                     else
-                        back_bits[0] = n * 8;
+                        response.bits = (received + n) * 8;
 
-                    if (n == 0) n = 1;
-                    if (n > this.MAX_LEN) n = this.MAX_LEN;
-                    backLen[0] = n;
-                    for (i = 0; i < n; i++)
-                        back_data[i] = readRC522(FIFODataReg);
+                    if (received + n == 0) n = 1;
+                    n = Math.min(n, response.data.length - received);
+                    response.length = received + n;
+                    readFIFO(response.data, received, n);
                 }
+                if (status == MI_OK && rxCrc && (error & 0x04) != 0)
+                    status = MI_CRCERR;
             }
             else
                 status = MI_ERR;
         }
+        transceiving = command == PCD_TRANSCEIVE && status == MI_OK;
+        metrics.status(status);
         return  status;
     }
 
     /**
-     * Convert sector  to blockaddress.
+     * Convert sector  to blockaddress. Sectors 0-31 have 4 blocks,
+     * sectors 32-39 (MIFARE Classic 4K only) have 16 blocks.
+     *
+     * @param sector 0-39
+     * @param block 0-3, or 0-15 in sectors 32-39.
+     * @return block address 0-255, or -1 if invalid.
+     */
+    static int sector2BlockAddress(int sector, int block)
+    {
+        if (sector < 0 || sector >= CLASSIC_4K_SECTORS || block < 0
+            || block >= sectorBlockCount(sector))
+            return -1;
+        if (sector < 32)
+            return sector * 4 + block;
+        return 128 + (sector - 32) * 16 + block;
+    }
+
+    /**
+     * Return the MIFARE Classic sector containing a block.
      *
-     * @param sector 0-15
-     * @param block 0-3
-     * @return block address
+     * @param block Block address 0-255.
+     * @return Sector 0-39.
      */
-    private byte sector2BlockAddress(byte sector, byte block)
+    public static int block2Sector(int block)
+    {
+        return block < 128 ? block / 4 : 32 + (block - 128) / 16;
+    }
+
+    /** Return number of blocks in given MIFARE Classic sector. */
+    static int sectorBlockCount(int sector)
     {
-        if (sector < 0 || sector > 15 || block < 0 || block > 3)
-            return (byte)(-1);
-        return (byte)(sector*4+block);
+        return sector < 32 ? 4 : 16;
     }
 
 
@@ -363,16 +1017,18 @@ public class RaspRC522
     public int setupTranscieve(byte req_mode, int[] back_bits)
     {
         int status;
-        byte tagType[] = new byte[1];
-        byte data_back[] = new byte[16];
-        int backLen[] = new int[1];
 
+        clearAuth();
+        setCrcFraming(false, false);
         writeRC522(BitFramingReg, (byte)0x07);
 
-        tagType[0] = req_mode;
-        back_bits[0] = 0;
-        status = writeCard(PCD_TRANSCEIVE, tagType,1,
-		           data_back, back_bits, backLen);
+        frame[0] = req_mode;
+        status = writeCard(PCD_TRANSCEIVE, frame, 1,
+		           getTimeout(Operation.REQUEST));
+        // Cards of different types answer with colliding ATQA bits.
+        if (status == MI_ERR && (response.error & 0x08) != 0)
+            status = MI_OK;
+        back_bits[0] = response.bits;
         if (status != MI_OK || back_bits[0] != 0x10) {
             //System.out.println("status="+status+",back_bits[0]="+back_bits[0]);
             status = MI_ERR;
@@ -382,6 +1038,8 @@ public class RaspRC522
 
     /**
      * Check if there is a valid tag to communicate with out there.
+     * Only handles cascade level 1 without collisions; see selectCard()
+     * for 7 and 10 byte UIDs and several cards.
      *
      * @param back_data On successful return, contains the located tag id
      *                  as five bytes.
@@ -390,34 +1048,23 @@ public class RaspRC522
     public int antiColl(byte[] back_data)
     {
         int status;
-        byte []serial_number = new byte[2];
         int serial_number_check = 0;
-        int backLen[] = new int[1];
-        int back_bits[] = new int[1];
         int i;
 
+        setCrcFraming(false, false);
         writeRC522(BitFramingReg, (byte)0x00);
-        serial_number[0] = PICC_ANTICOLL;
-        serial_number[1] = 0x20;
-        status = writeCard(PCD_TRANSCEIVE, serial_number, 2,
-		           back_data, back_bits, backLen);
-        if (status == MI_OK)
+        frame[0] = PICC_ANTICOLL;
+        frame[1] = 0x20;
+        status = writeCard(PCD_TRANSCEIVE, frame, 2,
+		           getTimeout(Operation.SELECT));
+        System.arraycopy(response.data, 0, back_data, 0,
+                         Math.min(response.length, back_data.length));
+        if (status == MI_OK && response.length == 5)
         {
-            if (backLen[0] == 5)
-            {
-                for(i = 0;i<4;i++)
-                    serial_number_check ^=back_data[i];
-                if (serial_number_check != back_data[4])
-                {
-                    status = MI_ERR;
-                    System.out.println("check error");
-                }
-            }
-            else
-            {
-                status = MI_OK;
-                System.out.println("backLen[0]="+backLen[0]);
-            }
+            for(i = 0;i<4;i++)
+                serial_number_check ^=back_data[i];
+            if (serial_number_check != back_data[4])
+                status = MI_ERR;        // BCC mismatch, e.g. a collision
         }
         return status;
     }
@@ -431,22 +1078,21 @@ public class RaspRC522
     public int selectTag(byte[] uid)
     {
         int status;
-        byte data[] = new byte[9];
-        byte back_data[] = new byte[this.MAX_LEN];
-        int back_bits[] = new int[1];
-        int backLen[] = new int[1];
-        int i,j;
+        int i,j,len;
 
-        data[0] = PICC_SElECTTAG;
-        data[1] = 0x70;
+        selected(uid);
+        frame[0] = PICC_SElECTTAG;
+        frame[1] = 0x70;
         for(i = 0,j = 2;i<5;i++,j++)
-            data[j] = uid[i];
-        calculateCRC(data);
-
-        status = writeCard(PCD_TRANSCEIVE, data, 9,
-		                   back_data, back_bits, backLen);
-        if (status == MI_OK && back_bits[0] == 0x18)
-	    return back_data[0];
+            frame[j] = uid[i];
+        len = prepareCrcFrame(9, true);
+        if (len == -1)
+            return 0;
+
+        status = writeCard(PCD_TRANSCEIVE, frame, len,
+		                   getTimeout(Operation.SELECT));
+        if (status == MI_OK && response.bits == (rxCrc ? 0x08 : 0x18))
+	    return response.data[0];
         else return 0;
     }
 
@@ -455,6 +1101,10 @@ public class RaspRC522
      * Authenticates to use specified block in sector 0. Tag must be selected
      * using select_tag(uid) before auth.
      *
+     * The authentication is always run on the card, also when a
+     * BlockCache holds the sector, so a missing card or a wrong key is
+     * always reported. A failure drops the card's cached blocks.
+     *
      * @param auth_mode RFID.auth_a or RFID.auth_b
      * @param block_address the block to unlock
      * @param key  six bytes key.
@@ -463,23 +1113,48 @@ public class RaspRC522
      */
     public int
     authCard(byte auth_mode, byte block_address, byte[] key,byte[] uid)
+    {
+        if (blockCache == null)
+            return authenticate(auth_mode, block_address, key, uid);
+        clearAuth();
+        KeyRing.Key cacheKey = null;
+        if ((auth_mode == PICC_AUTHENT1A || auth_mode == PICC_AUTHENT1B)
+            && key.length == 6)
+        {
+            if (lastKey == null || lastKey.getMode() != auth_mode
+                || !Arrays.equals(lastKey.bytes(), key))
+            {
+                lastKey = new KeyRing.Key(auth_mode, key);
+            }
+            cacheKey = lastKey;
+        }
+        int status = authenticate(auth_mode, block_address, key, uid);
+        if (status != MI_OK)
+            blockCache.invalidate(uid);
+        else if (cacheKey != null)
+            setAuth(uid, block_address & 0xFF, cacheKey);
+        return status;
+    }
+
+    /** Run the authentication frames of authCard(). */
+    private int
+    authenticate(byte auth_mode, byte block_address, byte[] key, byte[] uid)
     {
         int status;
-        byte data[] = new byte[12];
-        byte back_data[] = new byte[this.MAX_LEN];
-        int back_bits[] = new int[1];
-        int backLen[] = new int[1];
         int i,j;
 
-        data[0] = auth_mode;
-        data[1] = block_address;
+        frame[0] = auth_mode;
+        frame[1] = block_address;
         for(i = 0,j = 2;i<6;i++,j++)
-            data[j] = key[i];
-        for(i = 0,j = 8;i<4;i++,j++)
-            data[j] = uid[i];
-
-        status = writeCard(PCD_AUTHENT, data,12,back_data,back_bits,backLen);
-        if ((readRC522(Status2Reg) & 0x08) == 0)
+            frame[j] = key[i];
+        for(i = authUidOffset(uid),j = 8;j<12;i++,j++)
+            frame[j] = uid[i];
+
+        status = writeCard(PCD_AUTHENT, frame, 12,
+                           getTimeout(Operation.AUTHENT));
+        // A timeout leaves MFCrypto1On as it was, possibly set by a
+        // previous authentication.
+        if (status != MI_OK || (readRC522(Status2Reg) & 0x08) == 0)
             status = MI_ERR;
         return status;
     }
@@ -498,40 +1173,276 @@ public class RaspRC522
     public int
     authCard(byte auth_mode, byte sector, byte block, byte[] key, byte[] uid)
     {
-        return
-	    authCard(auth_mode, sector2BlockAddress(sector, block), key, uid);
+        int address = sector2BlockAddress(sector, block);
+        if (address == -1)
+            return MI_ERR;
+        return authCard(auth_mode, (byte) address, key, uid);
     }
 
-    /** End operation initiated by authCard(). */
-    public void stopCrypto()
+    /** Record an authenticated sector, used by the block cache. */
+    private void setAuth(byte[] uid, int block, KeyRing.Key key)
     {
-        clearBitMask(Status2Reg, (byte) 0x08);
+        authUid = uid.clone();
+        authSector = block2Sector(block);
+        authBlock = block;
+        authKey = key;
     }
 
-    /**
-     * Reads data from block in sector 0. Block must be authenticated
-     * using authCard() before calling read().
-     *
+    /** Forget the authenticated sector. */
+    private void clearAuth()
+    {
+        authUid = null;
+        authSector = -1;
+        authKey = null;
+    }
+
+    /** Return true if a cache is used and a sector is authenticated. */
+    private boolean cacheActive()
+    {
+        return blockCache != null && authKey != null;
+    }
+
+    /** End operation initiated by authCard(). */
+    public void stopCrypto()
+    {
+        clearAuth();
+        // Only MFCrypto1On is set, the other writable bits are unused.
+        writeRC522(Status2Reg, (byte) 0x00);
+    }
+
+    /**
+     * Reads data from block in sector 0. Block must be authenticated
+     * using authCard() before calling read(). On MIFARE Ultralight and
+     * NTAG21x cards block_address is a page, and four pages are read
+     * without authentication.
+     *
+     * With a BlockCache, blocks in the authenticated sector are read
+     * from the cache if possible.
+     *
      * @param block_address Block number to read from
      * @param back_data On successful return, holds data.
      * @return MI_OK if successful, else an MI_ error code.
      */
     public int read(byte block_address, byte[] back_data)
+    {
+        if (cacheActive())
+            return cachedRead(block_address, back_data);
+        return readBlock(block_address, back_data);
+    }
+
+    /**
+     * Read a block in the authenticated sector from the cache or, if
+     * not cached, from the card. Only blocks read using the key of
+     * the current authentication are served from the cache. After a
+     * block is read from the card the rest of the sector is read ahead
+     * into the cache.
+     */
+    private int cachedRead(byte block_address, byte[] back_data)
+    {
+        int address = block_address & 0xFF;
+        if (block2Sector(address) != authSector)
+            return readBlock(block_address, back_data);
+        byte[] cached = blockCache.get(authUid, address, authKey);
+        if (cached != null)
+        {
+            System.arraycopy(cached, 0, back_data, 0,
+                             Math.min(cached.length, back_data.length));
+            return MI_OK;
+        }
+        int status = readBlock(block_address, back_data);
+        if (status != MI_OK)
+            return status;
+        blockCache.put(authUid, address, response.data, authKey);
+        prefetch();
+        return MI_OK;
+    }
+
+    /**
+     * Read the blocks of the authenticated sector not yet cached. A
+     * failed read, e. g. of a block the key may not read, ends the
+     * crypto session; the card is then selected and authenticated
+     * again, and read-ahead isn't tried again for the sector.
+     */
+    private void prefetch()
+    {
+        if (!blockCache.startPrefetch(authUid, authSector))
+            return;
+        int first = sector2BlockAddress(authSector, 0);
+        for (int i = 0; i < sectorBlockCount(authSector); i++)
+        {
+            if (blockCache.contains(authUid, first + i))
+                continue;
+            if (readBlock((byte) (first + i), prefetchBuff) == MI_OK)
+            {
+                blockCache.put(authUid, first + i, prefetchBuff, authKey);
+                continue;
+            }
+            byte[] uid = authUid;
+            int block = authBlock;
+            KeyRing.Key key = authKey;
+            if (selectKnown(uid) == MI_OK
+                && authenticate(key.getMode(), (byte) block, key.bytes(), uid)
+                   == MI_OK)
+            {
+                setAuth(uid, block, key);
+            }
+            return;
+        }
+    }
+
+    /** Read a block from the card, as described in read(). */
+    private int readBlock(byte block_address, byte[] back_data)
     {
         int status;
-        byte data[] = new byte[4];
-        int back_bits[] = new int[1];
-        int backLen[] = new int[1];
-        int i,j;
+        int len;
+
+        frame[0] = PICC_READ;
+        frame[1] = block_address;
+        len = prepareCrcFrame(4, true);
+        if (len == -1)
+            return MI_ERR;
+        status = writeCard(PCD_TRANSCEIVE, frame, len,
+                           getTimeout(Operation.READ));
+        System.arraycopy(response.data, 0, back_data, 0,
+                         Math.min(response.length, back_data.length));
+        return checkAnswer(status, 16);
+    }
 
-        data[0] = PICC_READ;
-        data[1] = block_address;
-        calculateCRC(data);
-        status = writeCard(PCD_TRANSCEIVE, data, data.length,
-	                   back_data, back_bits, backLen);
-        if (backLen[0] == 16)
-            status = MI_OK;
-        return status;
+    /**
+     * Check the length and, unless already checked by the chip, the
+     * CRC of the last answer.
+     *
+     * @param status Status from writeCard().
+     * @param length Expected number of data bytes, CRC excluded.
+     * @return MI_OK if successful, else an MI_ error code.
+     */
+    private int checkAnswer(int status, int length)
+    {
+        if (status != MI_OK)
+            return status;
+        if (response.length != (rxCrc ? length : length + 2))
+            return MI_ERR;
+        if (!rxCrc && !CrcA.check(response.data, length + 2))
+            return MI_CRCERR;
+        return MI_OK;
+    }
+
+    /**
+     * Read the GET_VERSION answer of a MIFARE Ultralight EV1 or NTAG21x
+     * card. Other cards return to IDLE or HALT and must be selected
+     * again.
+     *
+     * @param version On successful return, the eight bytes answer.
+     * @return MI_OK if successful, else an MI_ error code.
+     */
+    public int getVersion(byte[] version)
+    {
+        frame[0] = PICC_GET_VERSION;
+        int len = prepareCrcFrame(3, true);
+        if (len == -1)
+            return MI_ERR;
+        int status = writeCard(PCD_TRANSCEIVE, frame, len,
+                               getTimeout(Operation.GET_VERSION));
+        System.arraycopy(response.data, 0, version, 0,
+                         Math.min(response.length, version.length));
+        return checkAnswer(status, 8);
+    }
+
+    /**
+     * Identify a selected MIFARE Ultralight or NTAG21x card (SAK 0x00)
+     * using GET_VERSION. Cards which don't support GET_VERSION are
+     * reported as ULTRALIGHT and selected again.
+     *
+     * @param uid UID of the selected card.
+     * @return The card type, or null if unknown or if the card is lost.
+     */
+    public UltralightType identifyUltralight(byte[] uid)
+    {
+        byte[] version = new byte[8];
+        if (getVersion(version) == MI_OK)
+            return UltralightType.fromVersion(version);
+        return reselect(uid) == MI_OK ? UltralightType.ULTRALIGHT : null;
+    }
+
+    /**
+     * Read a range of MIFARE Ultralight or NTAG21x pages in one
+     * FAST_READ frame. The answer must fit in MAX_RESPONSE_SIZE, see
+     * getMaxFastReadPages().
+     *
+     * @param start First page.
+     * @param end Last page, inclusive.
+     * @param back_data On successful return, holds (end - start + 1) * 4
+     *                  bytes.
+     * @return MI_OK if successful, else an MI_ error code.
+     */
+    public int fastRead(int start, int end, byte[] back_data)
+    {
+        int size = (end - start + 1) * UltralightType.PAGE_SIZE;
+        if (start < 0 || end > 0xFF || end < start
+            || end - start >= getMaxFastReadPages())
+        {
+            return MI_ERR;
+        }
+        frame[0] = PICC_FAST_READ;
+        frame[1] = (byte) start;
+        frame[2] = (byte) end;
+        int len = prepareCrcFrame(5, true);
+        if (len == -1)
+            return MI_ERR;
+        int status = writeCard(PCD_TRANSCEIVE, frame, len,
+                               getTimeout(Operation.FAST_READ));
+        System.arraycopy(response.data, 0, back_data, 0,
+                         Math.min(response.length, size));
+        return checkAnswer(status, size);
+    }
+
+    /**
+     * Return max number of pages read by a single fastRead(), limited by
+     * MAX_RESPONSE_SIZE and any CRC in the answer.
+     */
+    public int getMaxFastReadPages()
+    {
+        int crcSize = crcMode == CrcMode.HARDWARE ? 0 : 2;
+        return (MAX_RESPONSE_SIZE - crcSize) / UltralightType.PAGE_SIZE;
+    }
+
+    /**
+     * Read the user memory of a selected MIFARE Ultralight or NTAG21x
+     * card, using FAST_READ if supported and else READ of four pages.
+     * If a FAST_READ frame larger than the FIFO fails, typically since
+     * the host did not drain the FIFO in time, the rest is read using
+     * frames which fit in the FIFO.
+     *
+     * @param type Card type as returned by identifyUltralight().
+     * @return The user memory, or null on errors.
+     */
+    public byte[] readUserMemory(UltralightType type)
+    {
+        byte[] data = new byte[type.getUserSize()];
+        byte[] buff = new byte[MAX_RESPONSE_SIZE];
+        int fifoPages = (FIFO_SIZE - (crcMode == CrcMode.HARDWARE ? 0 : 2))
+                        / UltralightType.PAGE_SIZE;
+        int step = type.hasFastRead() ? getMaxFastReadPages() : 4;
+
+        int page = type.getUserStart();
+        while (page <= type.getUserEnd())
+        {
+            int last = Math.min(page + step - 1, type.getUserEnd());
+            int status = type.hasFastRead()
+                ? fastRead(page, last, buff) : read((byte) page, buff);
+            if (status != MI_OK && type.hasFastRead() && step > fifoPages)
+            {
+                step = fifoPages;
+                continue;
+            }
+            if (status != MI_OK)
+                return null;
+            System.arraycopy(buff, 0, data,
+                             (page - type.getUserStart()) * UltralightType.PAGE_SIZE,
+                             (last - page + 1) * UltralightType.PAGE_SIZE);
+            page = last + 1;
+        }
+        return data;
     }
 
     /**
@@ -545,7 +1456,10 @@ public class RaspRC522
      */
     public int read(byte sector, byte block, byte[] back_data)
     {
-        return read(sector2BlockAddress(sector,block),back_data);
+        int address = sector2BlockAddress(sector, block);
+        if (address == -1)
+            return MI_ERR;
+        return read((byte) address, back_data);
     }
 
     /**
@@ -559,36 +1473,38 @@ public class RaspRC522
     public int write(byte block_address, byte[] data)
     {
         int status;
-        byte buff[] = new byte[4];
-        byte buff_write[] = new byte[data.length+2];
-        byte back_data[] = new byte[this.MAX_LEN];
-        int back_bits[] = new int[1];
-        int backLen[] = new int[1];
-        int i;
-
-        buff[0] = PICC_WRITE;
-        buff[1] = block_address;
-        calculateCRC(buff);
-        status = writeCard(PCD_TRANSCEIVE, buff, buff.length,
-		           back_data, back_bits, backLen);
+        int len;
+
+        if (data.length + 2 > frame.length)
+            return MI_ERR;
+        if (cacheActive())
+            blockCache.remove(authUid, block_address & 0xFF);
+        frame[0] = PICC_WRITE;
+        frame[1] = block_address;
+        len = prepareCrcFrame(4, false);
+        if (len == -1)
+            return MI_ERR;
+        status = writeCard(PCD_TRANSCEIVE, frame, len,
+		           getTimeout(Operation.WRITE));
         //System.out.println("write_card  status="+status);
         //System.out.println("back_bits[0]="+back_bits[0]+",(back_data[0] & 0x0F)="+(back_data[0] & 0x0F));
-        if (status != MI_OK || back_bits[0] !=4
-	    || (back_data[0] & 0x0F) != 0x0A)
+        if (status != MI_OK || response.bits != 4
+	    || (response.data[0] & 0x0F) != 0x0A)
     	{
     	    status = MI_ERR;
     	}
         if (status == MI_OK)
         {
-            for (i = 0;i<data.length;i++)
-                buff_write[i] = data[i];
-            calculateCRC(buff_write);
-            status = writeCard(PCD_TRANSCEIVE, buff_write, buff_write.length,
-		               back_data, back_bits, backLen);
+            System.arraycopy(data, 0, frame, 0, data.length);
+            len = prepareCrcFrame(data.length + 2, false);
+            status = MI_ERR;
+            if (len != -1)
+                status = writeCard(PCD_TRANSCEIVE, frame, len,
+                                   getTimeout(Operation.WRITE));
             //System.out.println("write_card data status="+status);
             //System.out.println("back_bits[0]="+back_bits[0]+",(back_data[0] & 0x0F)="+(back_data[0] & 0x0F));
-            if (status != MI_OK ||back_bits[0] !=4
-            	|| (back_data[0] & 0x0F) != 0x0A)
+            if (status != MI_OK || response.bits != 4
+            	|| (response.data[0] & 0x0F) != 0x0A)
             {
             	       	status = MI_ERR;
             }
@@ -607,30 +1523,576 @@ public class RaspRC522
      */
     public int write(byte sector, byte block, byte[] data)
     {
-        return write(sector2BlockAddress(sector,block), data);
+        int address = sector2BlockAddress(sector, block);
+        if (address == -1)
+            return MI_ERR;
+        return write((byte) address, data);
+    }
+
+    /**
+     * Read a value block. Block must be authenticated using authCard()
+     * before calling readValue().
+     *
+     * @param block_address Block to read.
+     * @return The value block, or null if it can't be read or isn't a
+     *         valid value block.
+     */
+    public ValueBlock readValue(byte block_address)
+    {
+        byte[] data = new byte[16];
+        if (read(block_address, data) != MI_OK)
+            return null;
+        return ValueBlock.decode(data);
+    }
+
+    /**
+     * Format a block as a value block. Block must be authenticated
+     * using authCard() before calling writeValue().
+     *
+     * @param block_address Block to write.
+     * @param value Initial value.
+     * @return MI_OK if successful, else an MI_ error code.
+     */
+    public int writeValue(byte block_address, int value)
+    {
+        return write(block_address,
+                     new ValueBlock(value, block_address).toBytes());
+    }
+
+    /**
+     * Add delta to the value in a value block, storing the result in
+     * the card's transfer buffer. Use transfer() to write it to a block.
+     * Block must be authenticated using authCard().
+     *
+     * @param block_address Value block to increment.
+     * @param delta Non-negative amount to add.
+     * @return MI_OK if successful, else an MI_ error code.
+     */
+    public int increment(byte block_address, int delta)
+    {
+        return valueOperation(PICC_INCREMENT, block_address, delta);
+    }
+
+    /**
+     * Subtract delta from the value in a value block, storing the result
+     * in the card's transfer buffer. Use transfer() to write it to a
+     * block. Block must be authenticated using authCard().
+     *
+     * @param block_address Value block to decrement.
+     * @param delta Non-negative amount to subtract.
+     * @return MI_OK if successful, else an MI_ error code.
+     */
+    public int decrement(byte block_address, int delta)
+    {
+        return valueOperation(PICC_DECREMENT, block_address, delta);
+    }
+
+    /**
+     * Copy the value in a value block to the card's transfer buffer,
+     * typically followed by transfer() to a backup block. Block must be
+     * authenticated using authCard().
+     *
+     * @param block_address Value block to copy.
+     * @return MI_OK if successful, else an MI_ error code.
+     */
+    public int restore(byte block_address)
+    {
+        return valueOperation(PICC_RESTORE, block_address, 0);
+    }
+
+    /**
+     * Write the card's transfer buffer to a block, completing an
+     * increment(), decrement() or restore(). Until then the value block
+     * is unchanged on the card. Block must be authenticated using
+     * authCard().
+     *
+     * @param block_address Block to write.
+     * @return MI_OK if successful, else an MI_ error code.
+     */
+    public int transfer(byte block_address)
+    {
+        if (cacheActive())
+            blockCache.remove(authUid, block_address & 0xFF);
+        frame[0] = PICC_TRANSFER;
+        frame[1] = block_address;
+        int len = prepareCrcFrame(4, false);
+        if (len == -1)
+            return MI_ERR;
+        int status = writeCard(PCD_TRANSCEIVE, frame, len,
+                               getTimeout(Operation.TRANSFER));
+        return isAck(status) ? MI_OK : MI_ERR;
+    }
+
+    /**
+     * Run the two frames of increment, decrement or restore. The card
+     * ACKs the command and stays silent after the operand unless it
+     * fails, in which case it NAKs.
+     */
+    private int valueOperation(byte command, byte block_address, int operand)
+    {
+        if (operand < 0)
+            return MI_ERR;
+        frame[0] = command;
+        frame[1] = block_address;
+        int len = prepareCrcFrame(4, false);
+        if (len == -1)
+            return MI_ERR;
+        int timeout = getTimeout(Operation.VALUE);
+        int status = writeCard(PCD_TRANSCEIVE, frame, len, timeout);
+        if (!isAck(status))
+            return MI_ERR;
+        ValueBlock.putInt(frame, 0, operand);
+        len = prepareCrcFrame(6, false);
+        if (len == -1)
+            return MI_ERR;
+        status = writeCard(PCD_TRANSCEIVE, frame, len, timeout);
+        return status == MI_NOTAGERR ? MI_OK : MI_ERR;
+    }
+
+    /** Return true if the last answer was a 4 bit ACK. */
+    private boolean isAck(int status)
+    {
+        return status == MI_OK && response.bits == 4
+            && (response.data[0] & 0x0F) == 0x0A;
     }
 
 
+    /**
+     * Read all blocks in a MIFARE Classic 1K card using key A. Blocks
+     * which cannot be read are left as zeros.
+     *
+     * @param key Six bytes key A, used for all sectors.
+     * @param uid The selected card's UID, as returned by antiColl().
+     * @return 1024 bytes of card data.
+     */
     public byte[] dumpClassic1K(byte[] key, byte[] uid)
     {
-        int i,status;
-        byte []data = new byte[1024];
+        return dumpClassic(CLASSIC_1K_SECTORS, PICC_AUTHENT1A, key, uid)
+            .getData();
+    }
+
+    /**
+     * Read all blocks in a MIFARE Classic card. Each sector is
+     * authenticated once and then all its blocks are read in sequence.
+     * Since the card drops out of the session on errors, a failed
+     * authentication or read makes the card to be selected again before
+     * continuing. The crypto session is stopped on return.
+     *
+     * @param sectors CLASSIC_1K_SECTORS or CLASSIC_4K_SECTORS.
+     * @param auth_mode PICC_AUTHENT1A or PICC_AUTHENT1B.
+     * @param key Six bytes key, used for all sectors.
+     * @param uid The selected card's UID, as returned by antiColl().
+     * @return Data and status for each block.
+     */
+    public ClassicDump
+    dumpClassic(int sectors, byte auth_mode, byte[] key, byte[] uid)
+    {
+        return dumpClassic(sectors, new KeyRing(0).addKey(auth_mode, key),
+                           uid);
+    }
+
+    /**
+     * Read all blocks in a MIFARE Classic card, authenticating each
+     * sector using authSector(). The crypto session is stopped on return.
+     *
+     * @param sectors CLASSIC_1K_SECTORS or CLASSIC_4K_SECTORS.
+     * @param ring Candidate keys.
+     * @param uid The selected card's UID, as returned by antiColl().
+     * @return Data and status for each block.
+     */
+    public ClassicDump dumpClassic(int sectors, KeyRing ring, byte[] uid)
+    {
+        if (sectors != CLASSIC_1K_SECTORS && sectors != CLASSIC_4K_SECTORS)
+            throw new IllegalArgumentException("Bad sector count");
+        int blocks = sector2BlockAddress(sectors - 1, 0)
+                     + sectorBlockCount(sectors - 1);
+        ClassicDump dump = new ClassicDump(blocks);
         byte []buff = new byte[16];
 
-        for(i = 0;i<64;i++)
+        for (int sector = 0; sector < sectors; sector++)
+        {
+            KeyRing.Key key = authSector(ring, sector, uid);
+            if (key == null)
+                continue;
+            int first = sector2BlockAddress(sector, 0);
+            for (int block = 0; block < sectorBlockCount(sector); block++)
+            {
+                int status = read((byte) (first + block), buff);
+                dump.setBlock(first + block, status, buff);
+                if (status != MI_OK
+                    && (reselect(uid) != MI_OK
+                        || authCard(key.getMode(), (byte) first,
+                                    key.bytes(), uid) != MI_OK))
+                {
+                    break;
+                }
+            }
+        }
+        stopCrypto();
+        return dump;
+    }
+
+    /**
+     * Authenticate a MIFARE Classic sector trying the keys in a key
+     * ring. The key which last worked for this sector on this card is
+     * tried first. After a failed attempt the card is woken and selected
+     * again using its known UID, which is much faster than a new
+     * REQA/anticollision/select cycle.
+     *
+     * @param ring Candidate keys, also caching the key which works.
+     * @param sector Sector to authenticate, 0-39.
+     * @param uid The selected card's UID, as returned by antiColl().
+     * @return The key which worked, or null if none did. In the latter
+     *         case the card is left selected if it is still present.
+     */
+    public KeyRing.Key authSector(KeyRing ring, int sector, byte[] uid)
+    {
+        int block = sector2BlockAddress(sector, 0);
+        if (block == -1)
+            return null;
+        KeyRing.Key cached = ring.getCachedKey(uid, sector);
+        if (cached != null)
+        {
+            if (authCard(cached.getMode(), (byte) block, cached.bytes(), uid)
+                == MI_OK)
+            {
+                return cached;
+            }
+            ring.forget(uid, sector);
+            if (reselect(uid) != MI_OK)
+                return null;
+        }
+        for (KeyRing.Key key: ring.getKeys())
+        {
+            if (key == cached)
+                continue;
+            if (authCard(key.getMode(), (byte) block, key.bytes(), uid)
+                == MI_OK)
+            {
+                ring.remember(uid, sector, key);
+                return key;
+            }
+            if (reselect(uid) != MI_OK)
+                return null;
+        }
+        return null;
+    }
+
+    /**
+     * Read a batch of MIFARE Classic blocks. The requests are sorted so
+     * that each (sector, key) combination is authenticated once, and the
+     * reads following an authentication are pipelined (see writeCard()).
+     * After a failed read the card is selected again and the next
+     * request authenticates anew. The crypto session is stopped on
+     * return.
+     *
+     * @param batch Blocks to read, on return holds data and status for
+     *              each request.
+     * @param uid The selected card's UID, as returned by antiColl().
+     * @return MI_OK if all blocks were read, else MI_ERR.
+     */
+    public int readBatch(BlockBatch batch, byte[] uid)
+    {
+        BlockBatch.Request authenticated = null;
+        BlockBatch.Request failed = null;
+
+        for (BlockBatch.Request r: batch.prepare())
+        {
+            if (r.sameAuth(failed))
+                continue;
+            if (!r.sameAuth(authenticated))
+            {
+                authenticated = null;
+                if (authCard(r.key.getMode(), (byte) r.address,
+                             r.key.bytes(), uid) != MI_OK)
+                {
+                    failed = r;
+                    if (reselect(uid) != MI_OK)
+                        break;
+                    continue;
+                }
+                authenticated = r;
+            }
+            r.status = read((byte) r.address, r.data);
+            if (r.status != MI_OK)
+            {
+                authenticated = null;
+                if (reselect(uid) != MI_OK)
+                    break;
+            }
+        }
+        stopCrypto();
+        return batch.isComplete() ? MI_OK : MI_ERR;
+    }
+
+    /**
+     * Wake up and select a known card, without running anticollision.
+     * Works whether the card is ACTIVE, IDLE or HALTed. The card's blocks
+     * are dropped from any BlockCache, since the card in the field may
+     * not be the one cached even if the UID is the same.
+     *
+     * @param uid UID of 4, 7 or 10 bytes as returned by Uid.getBytes(),
+     *            or five bytes (UID + BCC) as returned by antiColl().
+     * @return MI_OK if successful, else an MI_ error code.
+     */
+    public int reselect(byte[] uid)
+    {
+        selected(uid);
+        return selectKnown(uid);
+    }
+
+    /**
+     * Record uid as the selected card. A new selection starts with no
+     * cached blocks for it, so a different card with the same UID never
+     * sees the blocks of the card it replaced.
+     */
+    private void selected(byte[] uid)
+    {
+        selectedUid = uid;
+        if (blockCache != null)
+            blockCache.invalidate(uid);
+    }
+
+    /** Run the WUPA and select frames of reselect(). */
+    private int selectKnown(byte[] uid)
+    {
+        int levels = uid.length == 7 ? 2 : uid.length == 10 ? 3 : 1;
+
+        stopCrypto();
+        // A card still ACTIVE ignores the first WUPA, but it drops to
+        // IDLE or HALT and answers the second one.
+        if (setupTranscieve(PICC_REQALL, backBits) != MI_OK
+            && setupTranscieve(PICC_REQALL, backBits) != MI_OK)
+        {
+            return MI_ERR;
+        }
+        writeRC522(BitFramingReg, (byte) 0x00);     // Undo REQA 7 bits
+        for (int level = 0; level < levels; level++)
+        {
+            if (level < levels - 1)
+            {
+                frame[2] = CASCADE_TAG;
+                System.arraycopy(uid, level * 3, frame, 3, 3);
+            }
+            else
+                System.arraycopy(uid, level * 3, frame, 2, 4);
+            frame[6] = (byte) (frame[2] ^ frame[3] ^ frame[4] ^ frame[5]);
+            int sak = selectLevel(level);
+            if (sak == -1 || ((sak & SAK_CASCADE) != 0) != (level < levels - 1))
+                return MI_ERR;
+        }
+        return MI_OK;
+    }
+
+    /**
+     * Run anticollision and select over all cascade levels (ISO/IEC
+     * 14443-3), selecting one card which has answered REQA or WUPA.
+     * Unlike antiColl() and selectTag() this handles 7 and 10 byte
+     * UIDs and resolves collisions bit by bit using CollReg, following
+     * the 1 branch at each collision.
+     *
+     * @return The selected card's UID, or null if no card could be
+     *         selected.
+     */
+    public Uid selectCard()
+    {
+        byte[] uid = new byte[10];
+        int size = 0;
+        int sak = SAK_CASCADE;
+
+        for (int level = 0; level < SEL.length && (sak & SAK_CASCADE) != 0;
+             level++)
         {
-            status = authCard(PICC_AUTHENT1A, (byte) i, key, uid);
+            if (anticollision(level) != MI_OK)
+                return null;
+            sak = selectLevel(level);
+            if (sak == -1)
+                return null;
+            if ((sak & SAK_CASCADE) == 0)
+            {
+                System.arraycopy(frame, 2, uid, size, 4);
+                size += 4;
+            }
+            else if (frame[2] == CASCADE_TAG)
+            {
+                System.arraycopy(frame, 3, uid, size, 3);
+                size += 3;
+            }
+            else
+                return null;
+        }
+        if ((sak & SAK_CASCADE) != 0)
+            return null;
+        byte[] bytes = Arrays.copyOf(uid, size);
+        selected(bytes);
+        return new Uid(bytes, sak);
+    }
+
+    /**
+     * Send HLTA to the selected card, putting it in the HALT state where
+     * it only answers WUPA. Any crypto session is ended and the card's
+     * blocks are dropped from any BlockCache.
+     *
+     * @return MI_OK if the card stayed silent as it should, else MI_ERR.
+     */
+    public int halt()
+    {
+        if (blockCache != null && selectedUid != null)
+            blockCache.invalidate(selectedUid);
+        selectedUid = null;
+        frame[0] = PICC_HALT;
+        frame[1] = 0x00;
+        int len = prepareCrcFrame(4, false);
+        if (len == -1)
+            return MI_ERR;
+        int status = writeCard(PCD_TRANSCEIVE, frame, len,
+                               getTimeout(Operation.HALT));
+        stopCrypto();
+        return status == MI_NOTAGERR ? MI_OK : MI_ERR;
+    }
+
+    /**
+     * Find all cards in the field. The field is switched off and on so
+     * that all cards start in IDLE; cards are then woken with REQA,
+     * selected one at a time using selectCard() and halted until no card
+     * answers REQA. On return all cards found are halted; use
+     * reselect() to talk to one of them.
+     *
+     * @param maxCards Max number of cards to find.
+     * @return The cards found.
+     */
+    public Inventory inventory(int maxCards)
+    {
+        int back_bits[] = new int[1];
+        Inventory inventory = new Inventory();
+        int failures = 0;
+        int startCollisions = collisions;
+        long start = System.nanoTime();
+
+        stopCrypto();
+        antennaOff();
+        LockSupport.parkNanos(FIELD_RESET_NANOS);
+        antennaOn();
+        LockSupport.parkNanos(FIELD_RESET_NANOS);
+        while (inventory.size() < maxCards && failures < MAX_INVENTORY_RETRIES)
+        {
+            if (setupTranscieve(PICC_REQIDL, back_bits) != MI_OK)
+                break;
+            writeRC522(BitFramingReg, (byte) 0x00);     // Undo REQA 7 bits
+            Uid uid = selectCard();
+            if (uid == null)
+            {
+                failures += 1;
+                continue;
+            }
+            inventory.add(uid, System.nanoTime() - start);
+            halt();
+        }
+        inventory.finish(System.nanoTime() - start, collisions - startCollisions,
+                         failures);
+        return inventory;
+    }
+
+    /**
+     * Run the anticollision loop of a cascade level, leaving the UID CLn
+     * field including BCC in frame[2..6]. Collisions are resolved by
+     * setting the collided bit and sending the known bits again; the
+     * position from CollReg is relative to the first received byte,
+     * including the RxAlign bits.
+     *
+     * @param level Cascade level 0-2.
+     * @return MI_OK if successful, else an MI_ error code.
+     */
+    private int anticollision(int level)
+    {
+        int known = 0;
+        int status = MI_OK;
+
+        setCrcFraming(false, false);
+        while (known < 40)
+        {
+            int align = known % 8;
+            int first = 2 + known / 8;
+            frame[0] = SEL[level];
+            frame[1] = (byte) ((first << 4) | align);
+            writeRC522(BitFramingReg, (byte) ((align << 4) | align));
+            status = writeCard(PCD_TRANSCEIVE, frame, 2 + (known + 7) / 8,
+                               getTimeout(Operation.SELECT));
+            if (response.length == 0 || status == MI_NOTAGERR)
+            {
+                status = MI_NOTAGERR;
+                break;
+            }
+            int mask = (1 << align) - 1;
+            frame[first] = (byte) ((frame[first] & mask)
+                                   | (response.data[0] & ~mask));
+            for (int i = 1; i < response.length && first + i < 7; i++)
+                frame[first + i] = response.data[i];
             if (status == MI_OK)
             {
-                status = read((byte) i, buff);
-                if (status == MI_OK)
-                    System.arraycopy(buff, 0, data, i*64, 16);
+                if (response.bits != align + 40 - known)
+                    status = MI_ERR;
+                break;
+            }
+            if ((response.error & 0x08) == 0)
+                break;
+            int coll = readRC522(CollReg) & 0xFF;
+            if ((coll & 0x20) != 0)
+                break;                          // CollPosNotValid
+            int position = (coll & 0x1F) == 0 ? 32 : coll & 0x1F;
+            int collided = (known / 8) * 8 + position;
+            if (collided <= known || collided > 40)
+                break;
+            known = collided;
+            collisions += 1;
+            frame[2 + (known - 1) / 8] |= (byte) (1 << ((known - 1) % 8));
+            status = MI_OK;
+            if (known >= 32)
+            {
+                // Collision in BCC: UID bits are known.
+                frame[6] = (byte) (frame[2] ^ frame[3] ^ frame[4] ^ frame[5]);
+                known = 40;
             }
         }
-        return data;
+        writeRC522(BitFramingReg, (byte) 0x00);
+        if (status == MI_OK
+            && frame[6] != (byte) (frame[2] ^ frame[3] ^ frame[4] ^ frame[5]))
+        {
+            status = MI_ERR;
+        }
+        return status;
     }
 
+    /**
+     * Select the UID CLn field in frame[2..6] on given cascade level.
+     *
+     * @return The SAK, or -1 on errors.
+     */
+    private int selectLevel(int level)
+    {
+        frame[0] = SEL[level];
+        frame[1] = 0x70;
+        int len = prepareCrcFrame(9, true);
+        if (len == -1)
+            return -1;
+        int status = writeCard(PCD_TRANSCEIVE, frame, len,
+                               getTimeout(Operation.SELECT));
+        if (status != MI_OK || response.bits != (rxCrc ? 8 : 24))
+            return -1;
+        if (!rxCrc && !CrcA.check(response.data, 3))
+            return -1;
+        return response.data[0] & 0xFF;
+    }
 
+    /**
+     * Return offset of the four UID bytes used in MIFARE Classic
+     * authentication: the last four for 7 and 10 byte UIDs, else the
+     * first four.
+     */
+    private static int authUidOffset(byte[] uid)
+    {
+        return uid.length == 7 || uid.length == 10 ? uid.length - 4 : 0;
+    }
 
     //uid-5 bytes
     public int selectMirareOne(byte[] uid)
@@ -0,0 +1,353 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime metrics for a RaspRC522: SPI traffic, command latencies,
+ * timeouts, ErrorReg bits and frame status codes.
+ *
+ * Recording is lock-free, using LongAdder counters and LatencyHistogram,
+ * so the driver thread never blocks on a JMX client reading the values.
+ * An instance can be shared by several readers to get totals, see
+ * RaspRC522.setMetrics().
+ *
+ * register() publishes the metrics as an MBean in the platform MBean
+ * server, named com.liangyuen.pi4j_rc522:type=Rc522Metrics,name=<name>.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public final class Rc522Metrics implements Rc522MetricsMBean
+{
+    /** JMX domain used by register(). */
+    public static final String DOMAIN = "com.liangyuen.pi4j_rc522";
+
+    private static final double P99 = 0.99;
+
+    private final LongAdder spiTransfers = new LongAdder();
+    private final LongAdder spiBytes = new LongAdder();
+    private final LongAdder spiErrors = new LongAdder();
+    private final LatencyHistogram transceive = new LatencyHistogram();
+    private final LatencyHistogram authent = new LatencyHistogram();
+    private final LatencyHistogram calcCrc = new LatencyHistogram();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder ok = new LongAdder();
+    private final LongAdder noTag = new LongAdder();
+    private final LongAdder error = new LongAdder();
+    private final LongAdder crcError = new LongAdder();
+    private final LongAdder crcMismatches = new LongAdder();
+    /** Count of each ErrorReg bit, bit 5 is reserved. */
+    private final LongAdder[] errorBits = new LongAdder[8];
+
+    private ObjectName objectName = null;
+
+    public Rc522Metrics()
+    {
+        for (int i = 0; i < errorBits.length; i += 1)
+            errorBits[i] = new LongAdder();
+    }
+
+    /** Record an SPI transfer of len bytes. */
+    void spiTransfer(int len, boolean failed)
+    {
+        spiTransfers.increment();
+        spiBytes.add(len);
+        if (failed)
+            spiErrors.increment();
+    }
+
+    /** Record the latency of a chip command, nanoseconds. */
+    void command(byte command, long nanos)
+    {
+        if (command == RaspRC522.PCD_TRANSCEIVE)
+            transceive.record(nanos);
+        else if (command == RaspRC522.PCD_AUTHENT)
+            authent.record(nanos);
+        else if (command == RaspRC522.PCD_CALCCRC)
+            calcCrc.record(nanos);
+    }
+
+    /** Record a command which timed out. */
+    void timeout()
+    {
+        timeouts.increment();
+    }
+
+    /** Record the status of a frame, an MI_ code. */
+    void status(int status)
+    {
+        switch (status)
+        {
+            case RaspRC522.MI_OK:
+                ok.increment();
+                break;
+            case RaspRC522.MI_NOTAGERR:
+                noTag.increment();
+                break;
+            case RaspRC522.MI_CRCERR:
+                crcError.increment();
+                break;
+            default:
+                error.increment();
+        }
+    }
+
+    /** Record a host/chip CRC mismatch in CrcMode.VERIFY. */
+    void crcMismatch()
+    {
+        crcMismatches.increment();
+    }
+
+    /** Record the ErrorReg value after a command. */
+    void errorReg(byte value)
+    {
+        if (value == 0)
+            return;
+        for (int i = 0; i < errorBits.length; i += 1)
+            if ((value & (1 << i)) != 0)
+                errorBits[i].increment();
+    }
+
+    /** Return the PCD_TRANSCEIVE latencies. */
+    public LatencyHistogram getTransceiveLatency()
+    {
+        return transceive;
+    }
+
+    /** Return the PCD_AUTHENT latencies. */
+    public LatencyHistogram getAuthentLatency()
+    {
+        return authent;
+    }
+
+    /** Return the PCD_CALCCRC latencies. */
+    public LatencyHistogram getCalcCrcLatency()
+    {
+        return calcCrc;
+    }
+
+    @Override
+    public long getSpiTransfers()
+    {
+        return spiTransfers.sum();
+    }
+
+    @Override
+    public long getSpiBytes()
+    {
+        return spiBytes.sum();
+    }
+
+    @Override
+    public long getSpiErrors()
+    {
+        return spiErrors.sum();
+    }
+
+    @Override
+    public long getTransceiveCount()
+    {
+        return transceive.getCount();
+    }
+
+    @Override
+    public long getTransceiveMeanMicros()
+    {
+        return transceive.getMean();
+    }
+
+    @Override
+    public long getTransceiveP99Micros()
+    {
+        return transceive.getPercentile(P99);
+    }
+
+    @Override
+    public long getTransceiveMaxMicros()
+    {
+        return transceive.getMax();
+    }
+
+    @Override
+    public long getAuthentCount()
+    {
+        return authent.getCount();
+    }
+
+    @Override
+    public long getAuthentMeanMicros()
+    {
+        return authent.getMean();
+    }
+
+    @Override
+    public long getAuthentP99Micros()
+    {
+        return authent.getPercentile(P99);
+    }
+
+    @Override
+    public long getAuthentMaxMicros()
+    {
+        return authent.getMax();
+    }
+
+    @Override
+    public long getCalcCrcCount()
+    {
+        return calcCrc.getCount();
+    }
+
+    @Override
+    public long getCalcCrcMeanMicros()
+    {
+        return calcCrc.getMean();
+    }
+
+    @Override
+    public long getCalcCrcP99Micros()
+    {
+        return calcCrc.getPercentile(P99);
+    }
+
+    @Override
+    public long getCalcCrcMaxMicros()
+    {
+        return calcCrc.getMax();
+    }
+
+    @Override
+    public long getTimeouts()
+    {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getOkCount()
+    {
+        return ok.sum();
+    }
+
+    @Override
+    public long getNoTagCount()
+    {
+        return noTag.sum();
+    }
+
+    @Override
+    public long getErrorCount()
+    {
+        return error.sum();
+    }
+
+    @Override
+    public long getCrcErrorCount()
+    {
+        return crcError.sum();
+    }
+
+    @Override
+    public long getCrcMismatches()
+    {
+        return crcMismatches.sum();
+    }
+
+    @Override
+    public long getProtocolErrors()
+    {
+        return errorBits[0].sum();
+    }
+
+    @Override
+    public long getParityErrors()
+    {
+        return errorBits[1].sum();
+    }
+
+    @Override
+    public long getCrcErrors()
+    {
+        return errorBits[2].sum();
+    }
+
+    @Override
+    public long getCollisionErrors()
+    {
+        return errorBits[3].sum();
+    }
+
+    @Override
+    public long getBufferOverflows()
+    {
+        return errorBits[4].sum();
+    }
+
+    @Override
+    public long getTemperatureErrors()
+    {
+        return errorBits[6].sum();
+    }
+
+    @Override
+    public long getWriteErrors()
+    {
+        return errorBits[7].sum();
+    }
+
+    @Override
+    public void reset()
+    {
+        spiTransfers.reset();
+        spiBytes.reset();
+        spiErrors.reset();
+        transceive.reset();
+        authent.reset();
+        calcCrc.reset();
+        timeouts.reset();
+        ok.reset();
+        noTag.reset();
+        error.reset();
+        crcError.reset();
+        crcMismatches.reset();
+        for (LongAdder bit: errorBits)
+            bit.reset();
+    }
+
+    /**
+     * Register in the platform MBean server.
+     *
+     * @param name Value of the name key, e. g. "reader0".
+     * @throws IllegalStateException if already registered.
+     * @throws JMException if name is invalid or already in use.
+     */
+    public synchronized void register(String name) throws JMException
+    {
+        if (objectName != null)
+            throw new IllegalStateException("Already registered");
+        ObjectName on = new ObjectName(
+            DOMAIN + ":type=Rc522Metrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+        objectName = on;
+    }
+
+    /** Remove from the platform MBean server, if registered. */
+    public synchronized void unregister() throws JMException
+    {
+        if (objectName == null)
+            return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (server.isRegistered(objectName))
+            server.unregisterMBean(objectName);
+        objectName = null;
+    }
+
+    /** Return the name used by register(), or null if not registered. */
+    public synchronized ObjectName getObjectName()
+    {
+        return objectName;
+    }
+}
@@ -0,0 +1,70 @@
+package com.liangyuen.pi4j_rc522;
+
+/**
+ * JMX management interface of Rc522Metrics. Counters are totals since
+ * creation or last reset(); dashboards derive rates from them. Latencies
+ * are in microseconds.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public interface Rc522MetricsMBean
+{
+    /** Number of SPI transfers. */
+    long getSpiTransfers();
+
+    /** Number of bytes moved on the SPI bus, address bytes included. */
+    long getSpiBytes();
+
+    /** Number of SPI transfers reported as failed by the transport. */
+    long getSpiErrors();
+
+    long getTransceiveCount();
+    long getTransceiveMeanMicros();
+    long getTransceiveP99Micros();
+    long getTransceiveMaxMicros();
+
+    long getAuthentCount();
+    long getAuthentMeanMicros();
+    long getAuthentP99Micros();
+    long getAuthentMaxMicros();
+
+    long getCalcCrcCount();
+    long getCalcCrcMeanMicros();
+    long getCalcCrcP99Micros();
+    long getCalcCrcMaxMicros();
+
+    /**
+     * Number of commands where the chip never reported completion
+     * within the wall-clock guard.
+     */
+    long getTimeouts();
+
+    /** Frames completed with MI_OK. */
+    long getOkCount();
+
+    /** Frames without answer, MI_NOTAGERR. */
+    long getNoTagCount();
+
+    /** Frames failed with MI_ERR. */
+    long getErrorCount();
+
+    /** Frames with a bad CRC in the answer, MI_CRCERR. */
+    long getCrcErrorCount();
+
+    /**
+     * Outgoing frames where host and chip CRC differed, CrcMode.VERIFY.
+     */
+    long getCrcMismatches();
+
+    /** ErrorReg bits seen after commands, see MFRC522 ErrorReg. */
+    long getProtocolErrors();
+    long getParityErrors();
+    long getCrcErrors();
+    long getCollisionErrors();
+    long getBufferOverflows();
+    long getTemperatureErrors();
+    long getWriteErrors();
+
+    /** Clear all counters and histograms. */
+    void reset();
+}
@@ -15,49 +15,44 @@ public class ReadRFID {
   
     public static void main(String[] args) throws InterruptedException {
         RaspRC522 rc522 = new RaspRC522();
-        int back_bits[] = new int[1];
+        CardPoller poller = new CardPoller(rc522, new CardListener() {
+            @Override
+            public void cardArrived(RaspRC522 reader, byte[] tagid) {
+                readCard(reader, tagid);
+            }
+
+            @Override
+            public void cardRemoved(RaspRC522 reader, byte[] tagid) {
+                System.out.println("Removed UID: "
+                                   + new ByteArray(tagid).toString(","));
+            }
+        });
+        poller.run();
+    }
+
+    private static void readCard(RaspRC522 rc522, byte[] tagid) {
         ByteArray strUID;
-        byte tagid[] = new byte[5];
-//      int i;
         int status;
-//      byte blockaddress = 8;
         byte sector = 15, block = 2;
-        while (true) {
-            Thread.sleep(2000);
-            if (rc522.setupTranscieve(RaspRC522.PICC_REQIDL, back_bits) 
-                == RaspRC522.MI_OK)
-            {
-                System.out.println("Detected:"+back_bits[0]);
-            }
-            if (rc522.antiColl(tagid) != RaspRC522.MI_OK)
-            {
-                System.out.println("anticoll error");
-                continue;
-            }
 
-            int size=rc522.selectTag(tagid);
-            System.out.println("Size="+size);
-
-//          rc522.selectMirareOne(tagid);
-            strUID = new ByteArray(tagid);
-            // System.out.println(strUID);
-            System.out.println("New UID: " + strUID.toString(","));
-
-            // Authenticate
-            byte data[] = new byte[16];
-            status = rc522.authCard(RaspRC522.PICC_AUTHENT1A, sector, block,
-                                    KEY_A.toBytes(), tagid);
-            if (status != RaspRC522.MI_OK) {
-                System.out.println("Authenticate A error");
-                continue;
-            }
-            status = rc522.read(sector, block, data);
-            System.out.println("Successfully authenticated,Read data=" 
-                               + new ByteArray(data).toString());
-            status = rc522.read(sector, (byte) 3, data);
-            System.out.println("Read control block data=" 
-                               + new ByteArray(data).toString());
-            rc522.stopCrypto();
+        strUID = new ByteArray(tagid);
+        System.out.println("New UID: " + strUID.toString(","));
+
+        // Authenticate
+        byte data[] = new byte[16];
+        status = rc522.authCard(RaspRC522.PICC_AUTHENT1A, sector, block,
+                                KEY_A.toBytes(), tagid);
+        if (status != RaspRC522.MI_OK) {
+            System.out.println("Authenticate A error");
+            return;
+        }
+        status = rc522.read(sector, block, data);
+        System.out.println("Successfully authenticated,Read data="
+                           + new ByteArray(data).toString());
+        status = rc522.read(sector, (byte) 3, data);
+        System.out.println("Read control block data="
+                           + new ByteArray(data).toString());
+        rc522.stopCrypto();
 //
 //      for (i = 0; i < 16; i++) {
 //          data[i] = (byte) 0x00;
@@ -98,7 +93,6 @@ public class ReadRFID {
         // if (i < 15) System.out.print(",");
         // else System.out.println("");
         // }
-        }  // while (true)
     }
 
     public static void rfidReaderLoop(int sleeptime) throws InterruptedException {
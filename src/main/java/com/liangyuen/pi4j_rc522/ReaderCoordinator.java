@@ -0,0 +1,188 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polls a set of readers, each one through its own CardPoller.
+ *
+ * Pollers wait in a queue ordered by the time their next poll is due;
+ * pollers due at the same time are served in round-robin order. Each
+ * worker thread takes the next due poller, runs pollOnce() and puts it
+ * back, so a reader is never used by two threads at the same time. With
+ * a single worker all readers are polled in sequence. With more workers
+ * and readers in IRQ mode, one reader can wait for a card answer while
+ * another reader uses the SPI bus, so the aggregate poll rate grows with
+ * the number of readers. In polling mode the wait itself keeps the bus
+ * busy, and extra workers help little.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class ReaderCoordinator
+{
+    /** A poller waiting for its next poll. */
+    private static final class Slot implements Delayed
+    {
+        private static final AtomicLong sequence = new AtomicLong();
+
+        final CardPoller poller;
+        final long due;
+        final long seq;
+
+        Slot(CardPoller poller, long due)
+        {
+            this.poller = poller;
+            this.due = due;
+            this.seq = sequence.getAndIncrement();
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit)
+        {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other)
+        {
+            Slot that = (Slot) other;
+            if (due != that.due)
+                return due - that.due < 0 ? -1 : 1;
+            return seq < that.seq ? -1 : seq == that.seq ? 0 : 1;
+        }
+    }
+
+    /** Delay after a poll which threw, so a broken reader can't spin. */
+    private static final long FAILED_POLL_DELAY =
+        TimeUnit.MILLISECONDS.toNanos(CardPoller.DEFAULT_IDLE_INTERVAL);
+
+    private final List<CardPoller> pollers = new ArrayList<CardPoller>();
+    private final DelayQueue<Slot> queue = new DelayQueue<Slot>();
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private volatile boolean running = false;
+    private final AtomicLong failedPolls = new AtomicLong();
+
+    /**
+     * Add a poller. Must be done before start().
+     *
+     * @param poller Poller for one reader.
+     * @return this coordinator.
+     */
+    public synchronized ReaderCoordinator add(CardPoller poller)
+    {
+        if (running)
+            throw new IllegalStateException("Coordinator is running");
+        pollers.add(poller);
+        return this;
+    }
+
+    /** Return number of readers. */
+    public synchronized int getReaderCount()
+    {
+        return pollers.size();
+    }
+
+    /**
+     * Return number of polls which threw a RuntimeException, e. g. from
+     * a listener. The worker survives these and polls the reader again
+     * after CardPoller.DEFAULT_IDLE_INTERVAL.
+     */
+    public long getFailedPollCount()
+    {
+        return failedPolls.get();
+    }
+
+    /**
+     * Start polling using one worker thread per reader.
+     */
+    public void start()
+    {
+        start(getReaderCount(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "rc522-poller");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Start polling.
+     *
+     * @param threads Number of worker threads, 1 - number of readers.
+     * @param factory Creates the worker threads.
+     */
+    public synchronized void start(int threads, ThreadFactory factory)
+    {
+        if (running)
+            throw new IllegalStateException("Coordinator is running");
+        if (threads < 1 || threads > Math.max(1, pollers.size()))
+            throw new IllegalArgumentException("Bad thread count");
+        running = true;
+        long now = System.nanoTime();
+        for (CardPoller poller: pollers)
+            queue.add(new Slot(poller, now));
+        for (int i = 0; i < threads; i += 1)
+        {
+            Thread worker = factory.newThread(new Runnable() {
+                @Override
+                public void run()
+                {
+                    work();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+    }
+
+    /**
+     * Stop polling and wait for the workers to finish their current poll.
+     */
+    public void stop() throws InterruptedException
+    {
+        List<Thread> stopped;
+        synchronized (this)
+        {
+            running = false;
+            stopped = new ArrayList<Thread>(workers);
+            workers.clear();
+        }
+        for (Thread worker: stopped)
+            worker.interrupt();
+        for (Thread worker: stopped)
+            worker.join();
+        queue.clear();
+    }
+
+    private void work()
+    {
+        while (running)
+        {
+            Slot slot;
+            try {
+                slot = queue.take();
+            }
+            catch (InterruptedException ex) {
+                return;
+            }
+            long delay = FAILED_POLL_DELAY;
+            try {
+                delay = slot.poller.pollOnce();
+            }
+            catch (RuntimeException ex) {
+                failedPolls.incrementAndGet();
+            }
+            finally {
+                queue.add(new Slot(slot.poller, System.nanoTime() + delay));
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread-safe front end to a RaspRC522.
+ *
+ * All register traffic runs on a single thread owning the reader.
+ * Callers submit whole transactions which are run one at a time in
+ * submission order, so FIFO contents and the crypto state of one
+ * transaction are never mixed with another's. After each transaction
+ * the crypto session is stopped, so the next one always starts from a
+ * clean state.
+ *
+ * A CardPoller can share the reader with other clients through
+ * startPolling(); its polls are then interleaved with the submitted
+ * transactions.
+ *
+ * The owner thread is created by a ThreadFactory, which might create a
+ * virtual thread. The driver does not block inside synchronized blocks.
+ *
+ * Transactions must not wait for other transactions submitted to the
+ * same executor; they would wait forever.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class ReaderExecutor implements AutoCloseable
+{
+    private final RaspRC522 reader;
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Create an executor using a daemon platform thread.
+     *
+     * @param reader The reader, not to be used directly after this call.
+     */
+    public ReaderExecutor(RaspRC522 reader)
+    {
+        this(reader, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "rc522-owner");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Create an executor.
+     *
+     * @param reader The reader, not to be used directly after this call.
+     * @param factory Creates the thread owning the reader.
+     */
+    public ReaderExecutor(RaspRC522 reader, ThreadFactory factory)
+    {
+        this.reader = reader;
+        this.executor = new ScheduledThreadPoolExecutor(1, factory);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Submit a transaction.
+     *
+     * @param transaction Work to run on the reader.
+     * @return Future completed with the transaction's result, or
+     *         exceptionally if it throws or the executor is closed.
+     */
+    public <T> CompletableFuture<T> submit(final Transaction<T> transaction)
+    {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run()
+                {
+                    if (future.isCancelled())
+                        return;
+                    try {
+                        future.complete(transaction.run(reader));
+                    }
+                    catch (Throwable t) {
+                        future.completeExceptionally(t);
+                    }
+                    finally {
+                        reader.stopCrypto();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+    /**
+     * Run a poller on the owner thread until close(). The poller's
+     * reader must be the one owned by this executor.
+     *
+     * @param poller Poller, its listener is invoked on the owner thread.
+     */
+    public void startPolling(final CardPoller poller)
+    {
+        if (poller.getReader() != reader)
+            throw new IllegalArgumentException("Poller uses another reader");
+        executor.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                long delay = 0;
+                try {
+                    delay = poller.pollOnce();
+                }
+                finally {
+                    reader.stopCrypto();
+                    try {
+                        executor.schedule(this, delay, TimeUnit.NANOSECONDS);
+                    }
+                    catch (RejectedExecutionException ex) {
+                        // Closed, polling ends.
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop accepting transactions, stop polling and wait for a running
+     * transaction to complete. Queued transactions are still run. If
+     * interrupted while waiting, returns with the interrupt flag set.
+     */
+    @Override
+    public void close()
+    {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
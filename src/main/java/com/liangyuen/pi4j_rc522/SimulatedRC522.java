@@ -0,0 +1,644 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A software MFRC522 usable as RC522Transport when no hardware is
+ * attached, e.g. for benchmarks and regression tests on any host.
+ *
+ * The model covers:
+ *   - The register file, including the set/clear semantics of the
+ *     CommIrqReg and DivIrqReg interrupt request bits.
+ *   - The 64 byte FIFO, accessed byte by byte or in bursts, with the
+ *     WaterLevelReg HiAlert and LoAlert flags and interrupt requests.
+ *   - The Idle, CalcCRC, Transceive, MFAuthent and SoftReset commands.
+ *   - Bit oriented frames (BitFramingReg TxLastBits/RxAlign), collisions
+ *     reported in CollReg and hardware CRC in TxModeReg/RxModeReg.
+ *   - The timer, which raises TimerIRq if no card answers.
+ *   - The IRQ pin, asserted while any interrupt enabled in CommIEnReg
+ *     or DivlEnReg is pending.
+ *   - VirtualCard instances placed in the RF field with addCard().
+ *
+ * Time is real time: each transfer can be given a latency, commands
+ * complete a configurable time after they are started, and a missing
+ * card answer is reported when the programmed timer expires. Card
+ * answers arrive in the FIFO byte by byte at the air interface rate set
+ * by setAirLatency(); an answer overflowing the FIFO before the host
+ * drains it sets BufferOvfl.
+ *
+ * The SPI clock set by setSpeed() only matters above the limit set by
+ * setMaxReliableSpeed(): faster transfers then return bytes with random
+ * bit errors, like a long cable does.
+ *
+ * All public methods are synchronized; cards may be added and removed
+ * while another thread drives the reader.
+ */
+public class SimulatedRC522 implements RC522Transport
+{
+    public static final byte VERSION = (byte) 0x92;
+
+    private static final int FIFO_SIZE = 64;
+    private static final double TIMER_CLOCK = 13.56e6;
+
+    private final byte[] regs = new byte[64];
+    private final byte[] fifo = new byte[FIFO_SIZE];
+    private int fifoHead = 0;
+    private int fifoCount = 0;
+    private int rxLastBits = 0;
+
+    private final List<VirtualCard> cards = new ArrayList<VirtualCard>();
+    private boolean powered = true;
+    private boolean antennaOn = false;
+
+    private Runnable pendingAction = null;
+    private long pendingDue = 0;
+    private long crcDue = 0;
+    private boolean crcPending = false;
+
+    private long transferLatency = 0;
+    private long byteLatency = 0;
+    private long commandLatency = 0;
+    private long crcLatency = 0;
+    private long airLatency = 0;
+    private int speed = 0;
+    private int maxReliableSpeed = Integer.MAX_VALUE;
+    private final Random noise = new Random(0);
+    private long transfers = 0;
+
+    public SimulatedRC522()
+    {
+        softReset();
+    }
+
+    /** Place a card in the RF field. */
+    public synchronized void addCard(VirtualCard card)
+    {
+        card.powerReset();
+        cards.add(card);
+    }
+
+    /** Remove a card from the RF field. */
+    public synchronized void removeCard(VirtualCard card)
+    {
+        cards.remove(card);
+        card.powerReset();
+    }
+
+    /** Remove all cards from the RF field. */
+    public synchronized void removeAllCards()
+    {
+        for (VirtualCard card: cards)
+            card.powerReset();
+        cards.clear();
+    }
+
+    /**
+     * Set the time each SPI transfer takes.
+     *
+     * @param perTransfer Fixed cost for each transfer, nanoseconds.
+     * @param perByte Additional cost for each transferred byte, nanoseconds.
+     */
+    public synchronized void setTransferLatency(long perTransfer, long perByte)
+    {
+        transferLatency = perTransfer;
+        byteLatency = perByte;
+    }
+
+    /**
+     * Set time from the start of a Transceive or MFAuthent command until
+     * the card answer is available, nanoseconds.
+     */
+    public synchronized void setCommandLatency(long nanos)
+    {
+        commandLatency = nanos;
+    }
+
+    /**
+     * Set time for each byte of a card answer to arrive, nanoseconds.
+     * 0 (the default) delivers the whole answer at once; 85000 is the
+     * 106 kbit/s air interface rate.
+     */
+    public synchronized void setAirLatency(long nanos)
+    {
+        airLatency = nanos;
+    }
+
+    /**
+     * Set the fastest SPI clock which works, Hz. Bytes read at higher
+     * speeds are corrupted.
+     */
+    public synchronized void setMaxReliableSpeed(int hz)
+    {
+        maxReliableSpeed = hz;
+    }
+
+    @Override
+    public synchronized boolean setSpeed(int speed)
+    {
+        this.speed = speed;
+        return true;
+    }
+
+    /** Set time for a CalcCRC command to complete, nanoseconds. */
+    public synchronized void setCrcLatency(long nanos)
+    {
+        crcLatency = nanos;
+    }
+
+    /** Return number of SPI transfers handled. */
+    public synchronized long getTransferCount()
+    {
+        return transfers;
+    }
+
+    /** Return current value of a register without side effects. */
+    public synchronized byte peekRegister(byte address)
+    {
+        advance();
+        return address == RaspRC522.FIFODataReg ? 0 : readRegister(address);
+    }
+
+    @Override
+    public synchronized void setResetPin(boolean high)
+    {
+        if (high && !powered)
+            softReset();
+        powered = high;
+        if (!high)
+            setAntenna(false);
+    }
+
+    @Override
+    public boolean hasIrq()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean waitForIrq(long timeoutNanos)
+    {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (true) {
+            long wakeup = deadline;
+            synchronized (this) {
+                advance();
+                if ((status1() & 0x10) != 0)
+                    return true;
+                if (pendingAction != null && pendingDue - wakeup < 0)
+                    wakeup = pendingDue;
+                if (crcPending && crcDue - wakeup < 0)
+                    wakeup = crcDue;
+            }
+            long now = System.nanoTime();
+            if (now - deadline >= 0)
+                return false;
+            if (wakeup - now > 0)
+                LockSupport.parkNanos(wakeup - now);
+        }
+    }
+
+    @Override
+    public synchronized int transfer(byte[] data, int length)
+    {
+        long start = System.nanoTime();
+        transfers += 1;
+        if (length <= 0)
+            return 0;
+        if (!powered) {
+            for (int i = 0; i < length; i += 1)
+                data[i] = 0;
+            return length;
+        }
+        advance();
+        int address = (data[0] >> 1) & 0x3F;
+        if ((data[0] & 0x80) != 0) {
+            for (int i = 1; i < length; i += 1) {
+                int next = (data[i] >> 1) & 0x3F;
+                data[i] = readRegister((byte) address);
+                if (speed > maxReliableSpeed && noise.nextInt(16) == 0)
+                    data[i] ^= (byte) (1 << noise.nextInt(8));
+                address = next;
+            }
+        }
+        else {
+            for (int i = 1; i < length; i += 1) {
+                writeRegister((byte) address, data[i]);
+                data[i] = 0;
+            }
+        }
+        data[0] = 0;
+        long until = start + transferLatency + byteLatency * length;
+        while (System.nanoTime() < until)
+            ;
+        return length;
+    }
+
+    /** Run pending command results which are due. */
+    private void advance()
+    {
+        long now = System.nanoTime();
+        if (pendingAction != null && now - pendingDue >= 0) {
+            Runnable action = pendingAction;
+            pendingAction = null;
+            action.run();
+        }
+        if (crcPending && now - crcDue >= 0) {
+            crcPending = false;
+            regs[RaspRC522.DivIrqReg] |= 0x04;
+        }
+    }
+
+    private void schedule(long delay, Runnable action)
+    {
+        pendingDue = System.nanoTime() + delay;
+        pendingAction = action;
+    }
+
+    private byte readRegister(byte address)
+    {
+        switch (address) {
+            case RaspRC522.FIFODataReg:
+                return fifoPop();
+            case RaspRC522.FIFOLevelReg:
+                return (byte) fifoCount;
+            case RaspRC522.ControlReg:
+                return (byte) (0x10 | rxLastBits);
+            case RaspRC522.Status1Reg:
+                return status1();
+            default:
+                return regs[address];
+        }
+    }
+
+    private void writeRegister(byte address, byte value)
+    {
+        switch (address) {
+            case RaspRC522.CommandReg:
+                regs[address] = (byte) (value & 0x3F);
+                startCommand(value & 0x0F);
+                break;
+            case RaspRC522.CommIrqReg:
+                if ((value & 0x80) != 0)
+                    regs[address] |= (byte) (value & 0x7F);
+                else
+                    regs[address] &= (byte) ~value;
+                break;
+            case RaspRC522.DivIrqReg:
+                if ((value & 0x80) != 0)
+                    regs[address] |= (byte) (value & 0x14);
+                else
+                    regs[address] &= (byte) ~value;
+                break;
+            case RaspRC522.FIFODataReg:
+                fifoPush(value);
+                break;
+            case RaspRC522.FIFOLevelReg:
+                if ((value & 0x80) != 0) {
+                    fifoHead = 0;
+                    fifoCount = 0;
+                    regs[RaspRC522.ErrorReg] &= ~0x10;
+                }
+                break;
+            case RaspRC522.Status2Reg:
+                regs[address] = (byte) ((value & 0xC0)
+                                        | (regs[address] & value & 0x08)
+                                        | (regs[address] & 0x07));
+                break;
+            case RaspRC522.BitFramingReg:
+                regs[address] = value;
+                if ((value & 0x80) != 0
+                    && (regs[RaspRC522.CommandReg] & 0x0F)
+                        == RaspRC522.PCD_TRANSCEIVE)
+                {
+                    transceive();
+                }
+                break;
+            case RaspRC522.TxControlReg:
+                regs[address] = value;
+                setAntenna((value & 0x03) != 0);
+                break;
+            case RaspRC522.CollReg:
+                regs[address] = (byte) ((regs[address] & 0x7F) | (value & 0x80));
+                break;
+            case RaspRC522.ErrorReg:
+            case RaspRC522.Status1Reg:
+            case RaspRC522.ControlReg:
+            case RaspRC522.VersionReg:
+                break;
+            default:
+                regs[address] = value;
+        }
+    }
+
+    private byte status1()
+    {
+        int value = 0;
+        int commIrq = regs[RaspRC522.CommIrqReg] & regs[RaspRC522.CommIEnReg];
+        int divIrq = regs[RaspRC522.DivIrqReg] & regs[RaspRC522.DivlEnReg];
+        if ((commIrq & 0x7F) != 0 || (divIrq & 0x14) != 0)
+            value |= 0x10;
+        if (!crcPending)
+            value |= 0x20;
+        if (fifoCount <= (regs[RaspRC522.WaterLevelReg] & 0x3F))
+            value |= 0x01;
+        if (FIFO_SIZE - fifoCount <= (regs[RaspRC522.WaterLevelReg] & 0x3F))
+            value |= 0x02;
+        return (byte) value;
+    }
+
+    private void startCommand(int command)
+    {
+        pendingAction = null;
+        switch (command) {
+            case RaspRC522.PCD_CALCCRC:
+                byte[] data = fifoDrain();
+                int crc = CrcA.compute(data, 0, data.length);
+                regs[RaspRC522.CRCResultRegL] = (byte) crc;
+                regs[RaspRC522.CRCResultRegM] = (byte) (crc >> 8);
+                crcDue = System.nanoTime() + crcLatency;
+                crcPending = true;
+                advance();
+                break;
+            case RaspRC522.PCD_TRANSCEIVE:
+                if ((regs[RaspRC522.BitFramingReg] & 0x80) != 0)
+                    transceive();
+                break;
+            case RaspRC522.PCD_AUTHENT:
+                authenticate();
+                break;
+            case RaspRC522.PCD_RESETPHASE:
+                softReset();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** Reset all registers to their power-up values. */
+    private void softReset()
+    {
+        for (int i = 0; i < regs.length; i += 1)
+            regs[i] = 0;
+        regs[RaspRC522.CommandReg] = 0x20;
+        regs[RaspRC522.CommIEnReg] = (byte) 0x80;
+        regs[RaspRC522.CommIrqReg] = 0x14;
+        regs[RaspRC522.WaterLevelReg] = 0x08;
+        regs[RaspRC522.CollReg] = (byte) 0xA0;
+        regs[RaspRC522.ModeReg] = 0x3F;
+        regs[RaspRC522.TxControlReg] = (byte) 0x80;
+        regs[RaspRC522.TxSelReg] = 0x10;
+        regs[RaspRC522.RxSelReg] = (byte) 0x84;
+        regs[RaspRC522.RxThresholdReg] = (byte) 0x84;
+        regs[RaspRC522.DemodReg] = 0x4D;
+        regs[RaspRC522.SerialSpeedReg] = (byte) 0xEB;
+        regs[RaspRC522.CRCResultRegM] = (byte) 0xFF;
+        regs[RaspRC522.CRCResultRegL] = (byte) 0xFF;
+        regs[RaspRC522.ModWidthReg] = 0x26;
+        regs[RaspRC522.RFCfgReg] = 0x48;
+        regs[RaspRC522.GsNReg] = (byte) 0x88;
+        regs[RaspRC522.CWGsPReg] = 0x20;
+        regs[RaspRC522.ModGsPReg] = 0x20;
+        regs[RaspRC522.VersionReg] = VERSION;
+        fifoHead = 0;
+        fifoCount = 0;
+        rxLastBits = 0;
+        pendingAction = null;
+        crcPending = false;
+        setAntenna(false);
+    }
+
+    private void setAntenna(boolean on)
+    {
+        if (on != antennaOn)
+            for (VirtualCard card: cards)
+                card.powerReset();
+        antennaOn = on;
+    }
+
+    /** Timer period in nanoseconds, or -1 if timer isn't started by TAuto. */
+    private long timerPeriod()
+    {
+        if ((regs[RaspRC522.TModeReg] & 0x80) == 0)
+            return -1;
+        int prescaler = ((regs[RaspRC522.TModeReg] & 0x0F) << 8)
+                        | (regs[RaspRC522.TPrescalerReg] & 0xFF);
+        int reload = ((regs[RaspRC522.TReloadRegH] & 0xFF) << 8)
+                     | (regs[RaspRC522.TReloadRegL] & 0xFF);
+        return (long) ((2.0 * prescaler + 1) * (reload + 1)
+                       / TIMER_CLOCK * 1e9);
+    }
+
+    /** Schedule TimerIRq as the result of a frame with no answer. */
+    private void scheduleTimeout()
+    {
+        long period = timerPeriod();
+        if (period < 0)
+            return;
+        schedule(Math.max(period, commandLatency), new Runnable() {
+            public void run() {
+                regs[RaspRC522.CommIrqReg] |= 0x01;
+            }
+        });
+    }
+
+    private VirtualCard activeCard()
+    {
+        for (VirtualCard card: cards)
+            if (card.getState() == VirtualCard.State.ACTIVE)
+                return card;
+        return null;
+    }
+
+    private void authenticate()
+    {
+        byte[] data = fifoDrain();
+        VirtualCard card = antennaOn ? activeCard() : null;
+        if (card == null || data.length < 12
+            || !card.authenticate(data[0], data[1] & 0xFF,
+                                  copyOf(data, 2, 6), copyOf(data, 8, 4)))
+        {
+            scheduleTimeout();
+            return;
+        }
+        schedule(commandLatency, new Runnable() {
+            public void run() {
+                regs[RaspRC522.Status2Reg] |= 0x08;
+                regs[RaspRC522.CommIrqReg] |= 0x10;
+                regs[RaspRC522.CommandReg] &= 0xF0;
+            }
+        });
+    }
+
+    /** Send FIFO contents to cards, schedule reception of the answer. */
+    private void transceive()
+    {
+        byte[] frame = fifoDrain();
+        if (frame.length == 0)
+            return;
+        int txLastBits = regs[RaspRC522.BitFramingReg] & 0x07;
+        final int rxAlign = (regs[RaspRC522.BitFramingReg] >> 4) & 0x07;
+        int bits = (frame.length - 1) * 8 + (txLastBits == 0 ? 8 : txLastBits);
+        if ((regs[RaspRC522.TxModeReg] & 0x80) != 0 && txLastBits == 0) {
+            byte[] withCrc = new byte[frame.length + 2];
+            System.arraycopy(frame, 0, withCrc, 0, frame.length);
+            CrcA.append(withCrc, frame.length);
+            frame = withCrc;
+            bits += 16;
+        }
+        regs[RaspRC522.ErrorReg] &= 0x10;
+        regs[RaspRC522.CollReg] = (byte) ((regs[RaspRC522.CollReg] & 0x80) | 0x20);
+        rxLastBits = 0;
+
+        List<VirtualCard.Response> responses =
+            new ArrayList<VirtualCard.Response>();
+        if (antennaOn) {
+            VirtualCard active = activeCard();
+            if (active != null && active.isAuthenticated()
+                && (regs[RaspRC522.Status2Reg] & 0x08) == 0)
+            {
+                // Card expects encrypted frames, this is just noise.
+                active.deselect();
+            }
+            for (VirtualCard card: cards) {
+                VirtualCard.Response r = card.receive(frame.clone(), bits);
+                if (r != null)
+                    responses.add(r);
+            }
+        }
+        if (responses.isEmpty()) {
+            regs[RaspRC522.CommIrqReg] |= 0x40;
+            scheduleTimeout();
+            return;
+        }
+        final VirtualCard.Response answer = merge(responses);
+        schedule(commandLatency, new Runnable() {
+            public void run() {
+                receive(answer, rxAlign);
+            }
+        });
+    }
+
+    /**
+     * Combine answers from several cards as seen by the reader, recording
+     * the first collision in CollReg and ErrorReg.
+     */
+    private VirtualCard.Response merge(List<VirtualCard.Response> responses)
+    {
+        if (responses.size() == 1)
+            return responses.get(0);
+        int bits = 0;
+        for (VirtualCard.Response r: responses)
+            bits = Math.max(bits, r.bits);
+        byte[] data = new byte[(bits + 7) / 8];
+        int collision = -1;
+        boolean keep = (regs[RaspRC522.CollReg] & 0x80) != 0;
+        for (int i = 0; i < bits; i += 1) {
+            boolean one = false;
+            boolean zero = false;
+            for (VirtualCard.Response r: responses) {
+                if (i >= r.bits || VirtualCard.getBit(r.data, i))
+                    one = true;
+                else
+                    zero = true;
+            }
+            if (one && zero && collision == -1)
+                collision = i;
+            if (collision == -1 || i == collision || keep)
+                VirtualCard.setBit(data, i, one);
+        }
+        if (collision != -1) {
+            regs[RaspRC522.ErrorReg] |= 0x08;
+            int rxAlign = (regs[RaspRC522.BitFramingReg] >> 4) & 0x07;
+            int position = rxAlign + collision + 1;
+            if (position <= 32)
+                regs[RaspRC522.CollReg] = (byte) ((regs[RaspRC522.CollReg] & 0x80)
+                                                  | (position & 0x1F));
+        }
+        return new VirtualCard.Response(data, bits);
+    }
+
+    /** Store a card answer in the FIFO and raise the interrupts. */
+    private void receive(VirtualCard.Response answer, int rxAlign)
+    {
+        byte[] data = answer.data;
+        int bits = answer.bits;
+        if ((regs[RaspRC522.RxModeReg] & 0x80) != 0) {
+            if (bits % 8 == 0 && CrcA.check(data, bits / 8))
+                bits -= 16;
+            else
+                regs[RaspRC522.ErrorReg] |= 0x04;
+        }
+        final int total = rxAlign + bits;
+        final byte[] aligned = new byte[(total + 7) / 8];
+        for (int i = 0; i < bits; i += 1)
+            VirtualCard.setBit(aligned, rxAlign + i,
+                               VirtualCard.getBit(data, i));
+        final long start = System.nanoTime();
+        new Runnable() {
+            private int next = 0;
+
+            /** Push the bytes which have arrived, reschedule for the rest. */
+            public void run() {
+                long now = System.nanoTime();
+                while (next < aligned.length
+                       && (airLatency == 0
+                           || now - start >= airLatency * (next + 1)))
+                {
+                    fifoPush(aligned[next]);
+                    next += 1;
+                }
+                if (next < aligned.length) {
+                    schedule(start + airLatency * (next + 1) - now, this);
+                    return;
+                }
+                rxLastBits = total % 8;
+                int irq = 0x40 | 0x20;
+                if ((regs[RaspRC522.ErrorReg] & 0x1F) != 0)
+                    irq |= 0x02;
+                regs[RaspRC522.CommIrqReg] |= (byte) irq;
+            }
+        }.run();
+    }
+
+    private void fifoPush(byte value)
+    {
+        if (fifoCount == FIFO_SIZE) {
+            regs[RaspRC522.ErrorReg] |= 0x10;
+            return;
+        }
+        fifo[(fifoHead + fifoCount) % FIFO_SIZE] = value;
+        fifoCount += 1;
+        if (FIFO_SIZE - fifoCount <= (regs[RaspRC522.WaterLevelReg] & 0x3F))
+            regs[RaspRC522.CommIrqReg] |= 0x08;         // HiAlertIRq
+    }
+
+    private byte fifoPop()
+    {
+        if (fifoCount == 0)
+            return 0;
+        byte value = fifo[fifoHead];
+        fifoHead = (fifoHead + 1) % FIFO_SIZE;
+        fifoCount -= 1;
+        if (fifoCount <= (regs[RaspRC522.WaterLevelReg] & 0x3F))
+            regs[RaspRC522.CommIrqReg] |= 0x04;         // LoAlertIRq
+        return value;
+    }
+
+    private byte[] fifoDrain()
+    {
+        byte[] data = new byte[fifoCount];
+        for (int i = 0; i < data.length; i += 1)
+            data[i] = fifoPop();
+        return data;
+    }
+
+    private static byte[] copyOf(byte[] data, int offset, int length)
+    {
+        byte[] copy = new byte[length];
+        System.arraycopy(data, offset, copy, 0, length);
+        return copy;
+    }
+}
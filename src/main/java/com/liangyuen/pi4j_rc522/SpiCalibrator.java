@@ -0,0 +1,296 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Finds the fastest SPI clock which works reliably with a given reader
+ * and wiring.
+ *
+ * The clock is stepped up from the slowest speed. At each step
+ * VersionReg is read and a set of patterns is written to and read back
+ * from the FIFO in bursts, the longest transfers the driver does. The
+ * first step with any error ends the search; the result is one step
+ * below the fastest error free step, as a safety margin. This also
+ * applies when all steps pass, since the fastest one may then be just
+ * below the limit.
+ *
+ * Only the FIFO, FIFOLevelReg, CommandReg (Idle) and VersionReg are
+ * used, so the calibration can run before or between uses of a
+ * RaspRC522 on the same transport, but not concurrently with one.
+ *
+ * Typical use, reusing the result of an earlier run:
+ *
+ *     RC522Transport t = new WiringPiTransport(0, RaspRC522.DEFAULT_SPEED,
+ *                                              RaspRC522.DEFAULT_RST_PIN);
+ *     new SpiCalibrator(t).calibrate(new File("rc522.properties"));
+ *     RaspRC522 rc522 = new RaspRC522(t);
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class SpiCalibrator
+{
+    /** Speeds tried by default, Hz. The MFRC522 is specified to 10 MHz. */
+    public static final int[] DEFAULT_SPEEDS = {
+        500000, 1000000, 2000000, 4000000, 5000000, 8000000, 10000000
+    };
+
+    /** Pattern rounds at each speed in a full calibration. */
+    public static final int DEFAULT_ROUNDS = 100;
+
+    /** Pattern rounds when checking a saved speed. */
+    public static final int CHECK_ROUNDS = 20;
+
+    /** Key of the speed in the properties file. */
+    public static final String SPEED_KEY = "rc522.spi.speed";
+
+    private static final int FIFO_SIZE = 64;
+    /** Oscillator start-up time after releasing reset. */
+    private static final long STARTUP_NANOS = 50000000L;
+
+    private final RC522Transport transport;
+    private final byte[] buff = new byte[FIFO_SIZE + 1];
+    private final byte[][] patterns;
+    private final SortedMap<Integer, Integer> results =
+        new TreeMap<Integer, Integer>();
+    private int version = -1;
+
+    /**
+     * Create a calibrator.
+     *
+     * @param transport Transport to the reader, which must support
+     *                  setSpeed().
+     */
+    public SpiCalibrator(RC522Transport transport)
+    {
+        this.transport = transport;
+        patterns = new byte[8][FIFO_SIZE];
+        Arrays.fill(patterns[0], (byte) 0x00);
+        Arrays.fill(patterns[1], (byte) 0xFF);
+        Arrays.fill(patterns[2], (byte) 0x55);
+        Arrays.fill(patterns[3], (byte) 0xAA);
+        Random random = new Random(0x522);
+        for (int i = 0; i < FIFO_SIZE; i += 1)
+        {
+            patterns[4][i] = (byte) (1 << (i % 8));
+            patterns[5][i] = (byte) ~(1 << (i % 8));
+            patterns[6][i] = (byte) i;
+        }
+        random.nextBytes(patterns[7]);
+    }
+
+    /** Run calibrate(DEFAULT_SPEEDS, DEFAULT_ROUNDS). */
+    public int calibrate()
+    {
+        return calibrate(DEFAULT_SPEEDS, DEFAULT_ROUNDS);
+    }
+
+    /**
+     * Find the fastest reliable speed and leave the transport using it.
+     *
+     * @param speeds Speeds to try, Hz, in increasing order.
+     * @param rounds Number of pattern rounds at each speed.
+     * @return The selected speed.
+     * @throws IllegalStateException if no speed works, typically since
+     *         no reader is connected.
+     */
+    public int calibrate(int[] speeds, int rounds)
+    {
+        results.clear();
+        start(speeds[0]);
+        int best = -1;
+        for (int i = 0; i < speeds.length; i += 1)
+        {
+            int errors = check(speeds[i], rounds);
+            results.put(speeds[i], errors);
+            if (errors > 0)
+                break;
+            best = i;
+        }
+        if (best == -1)
+        {
+            setSpeed(speeds[0]);
+            throw new IllegalStateException("No working SPI speed");
+        }
+        if (best > 0)
+            best -= 1;                              // Safety margin
+        setSpeed(speeds[best]);
+        return speeds[best];
+    }
+
+    /**
+     * Use the speed saved in a properties file if it still works,
+     * otherwise run a full calibration and save the result.
+     *
+     * @param file Properties file, created if missing.
+     * @return The selected speed.
+     * @throws IOException if the result can't be saved.
+     */
+    public int calibrate(File file) throws IOException
+    {
+        int saved = load(file, -1);
+        if (saved != -1)
+        {
+            start(DEFAULT_SPEEDS[0]);
+            results.clear();
+            int errors = check(saved, CHECK_ROUNDS);
+            results.put(saved, errors);
+            if (errors == 0)
+                return saved;
+        }
+        int speed = calibrate();
+        save(file, speed);
+        return speed;
+    }
+
+    /**
+     * Return the number of failed rounds for each speed tried by the
+     * last calibration.
+     */
+    public SortedMap<Integer, Integer> getResults()
+    {
+        return Collections.unmodifiableSortedMap(results);
+    }
+
+    /** Return VersionReg as read at the slowest speed, or -1. */
+    public int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Read a speed saved by save().
+     *
+     * @return The saved speed, or fallback if the file is missing or
+     *         unreadable.
+     */
+    public static int load(File file, int fallback)
+    {
+        Properties props = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                props.load(in);
+            }
+            finally {
+                in.close();
+            }
+            return Integer.parseInt(props.getProperty(SPEED_KEY).trim());
+        }
+        catch (IOException ex) {
+            return fallback;
+        }
+        catch (RuntimeException ex) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Save a speed in a properties file, keeping other properties in it.
+     */
+    public static void save(File file, int speed) throws IOException
+    {
+        Properties props = new Properties();
+        if (file.exists())
+        {
+            InputStream in = new FileInputStream(file);
+            try {
+                props.load(in);
+            }
+            finally {
+                in.close();
+            }
+        }
+        props.setProperty(SPEED_KEY, Integer.toString(speed));
+        OutputStream out = new FileOutputStream(file);
+        try {
+            props.store(out, "MFRC522 SPI calibration");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Power up the chip and read the reference VersionReg at a slow
+     * speed.
+     */
+    private void start(int slowSpeed)
+    {
+        transport.setResetPin(true);
+        LockSupport.parkNanos(STARTUP_NANOS);
+        setSpeed(slowSpeed);
+        writeRegister(RaspRC522.CommandReg, RaspRC522.PCD_IDLE);
+        version = readRegister(RaspRC522.VersionReg);
+        if (version == 0x00 || version == 0xFF)
+        {
+            version = -1;
+            throw new IllegalStateException("No MFRC522 found");
+        }
+    }
+
+    private void setSpeed(int speed)
+    {
+        if (!transport.setSpeed(speed))
+            throw new IllegalStateException(
+                "Transport does not support speed changes");
+    }
+
+    /**
+     * Run pattern rounds at given speed.
+     *
+     * @return Number of failed rounds.
+     */
+    private int check(int speed, int rounds)
+    {
+        int errors = 0;
+        setSpeed(speed);
+        for (int round = 0; round < rounds; round += 1)
+        {
+            byte[] pattern = patterns[round % patterns.length];
+            boolean ok = readRegister(RaspRC522.VersionReg) == version;
+            writeRegister(RaspRC522.FIFOLevelReg, (byte) 0x80);   // Flush
+            buff[0] = (byte) ((RaspRC522.FIFODataReg << 1) & 0x7E);
+            System.arraycopy(pattern, 0, buff, 1, FIFO_SIZE);
+            ok &= transport.transfer(buff, FIFO_SIZE + 1) == FIFO_SIZE + 1;
+            ok &= readRegister(RaspRC522.FIFOLevelReg) == FIFO_SIZE;
+            byte address =
+                (byte) (((RaspRC522.FIFODataReg << 1) & 0x7E) | 0x80);
+            Arrays.fill(buff, 0, FIFO_SIZE, address);
+            buff[FIFO_SIZE] = 0;
+            ok &= transport.transfer(buff, FIFO_SIZE + 1) == FIFO_SIZE + 1;
+            for (int i = 0; ok && i < FIFO_SIZE; i += 1)
+                ok = buff[i + 1] == pattern[i];
+            if (!ok)
+                errors += 1;
+        }
+        writeRegister(RaspRC522.FIFOLevelReg, (byte) 0x80);
+        return errors;
+    }
+
+    private void writeRegister(byte address, byte value)
+    {
+        buff[0] = (byte) ((address << 1) & 0x7E);
+        buff[1] = value;
+        transport.transfer(buff, 2);
+    }
+
+    private int readRegister(byte address)
+    {
+        buff[0] = (byte) (((address << 1) & 0x7E) | 0x80);
+        buff[1] = 0;
+        transport.transfer(buff, 2);
+        return buff[1] & 0xFF;
+    }
+}
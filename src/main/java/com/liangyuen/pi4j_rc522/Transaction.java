@@ -0,0 +1,19 @@
+package com.liangyuen.pi4j_rc522;
+
+/**
+ * A unit of work run on a reader by a ReaderExecutor, for example
+ * select + authCard + read + stopCrypto.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public interface Transaction<T>
+{
+    /**
+     * Run the transaction. The reader is exclusively owned by the
+     * calling thread until return.
+     *
+     * @param reader The reader.
+     * @return Result passed to the future returned by submit().
+     */
+    T run(RaspRC522 reader) throws Exception;
+}
@@ -0,0 +1,76 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.util.Arrays;
+
+/**
+ * A card UID as found by RaspRC522.selectCard(): 4, 7 or 10 bytes
+ * together with the final SAK.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public final class Uid
+{
+    private final byte[] bytes;
+    private final int sak;
+
+    /**
+     * Create a UID.
+     *
+     * @param bytes UID bytes, 4, 7 or 10 bytes without cascade tags and
+     *              check bytes.
+     * @param sak SAK sent by the card when the select was completed.
+     */
+    public Uid(byte[] bytes, int sak)
+    {
+        if (bytes.length != 4 && bytes.length != 7 && bytes.length != 10)
+            throw new IllegalArgumentException("UID must be 4, 7 or 10 bytes");
+        this.bytes = bytes.clone();
+        this.sak = sak & 0xFF;
+    }
+
+    /** Return the UID bytes. */
+    public byte[] getBytes()
+    {
+        return bytes.clone();
+    }
+
+    /** Return number of UID bytes, 4, 7 or 10. */
+    public int getSize()
+    {
+        return bytes.length;
+    }
+
+    /** Return number of cascade levels used to select the card, 1-3. */
+    public int getCascadeLevels()
+    {
+        return bytes.length == 4 ? 1 : bytes.length == 7 ? 2 : 3;
+    }
+
+    /** Return the SAK sent when the select was completed. */
+    public int getSak()
+    {
+        return sak;
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if (!(other instanceof Uid))
+            return false;
+        Uid that = (Uid) other;
+        return sak == that.sak && Arrays.equals(bytes, that.bytes);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(bytes) * 31 + sak;
+    }
+
+    @Override
+    public String toString()
+    {
+        return ByteArray.toHex(bytes) + " sak="
+            + ByteArray.toHex(new byte[] {(byte) sak});
+    }
+}
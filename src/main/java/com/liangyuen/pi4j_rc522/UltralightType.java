@@ -0,0 +1,89 @@
+package com.liangyuen.pi4j_rc522;
+
+/**
+ * MIFARE Ultralight and NTAG21x tag types, with the page layout used by
+ * RaspRC522.readUserMemory(). Cards are identified by the GET_VERSION
+ * answer; the original Ultralight does not support GET_VERSION nor
+ * FAST_READ.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public enum UltralightType
+{
+    ULTRALIGHT(16, 4, 15, false, -1, -1),
+    ULTRALIGHT_EV1_MF0UL11(20, 4, 15, true, 0x03, 0x0B),
+    ULTRALIGHT_EV1_MF0UL21(41, 4, 35, true, 0x03, 0x0E),
+    NTAG213(45, 4, 39, true, 0x04, 0x0F),
+    NTAG215(135, 4, 129, true, 0x04, 0x11),
+    NTAG216(231, 4, 225, true, 0x04, 0x13);
+
+    /** Size of a page, bytes. */
+    public static final int PAGE_SIZE = 4;
+
+    private final int pages;
+    private final int userStart;
+    private final int userEnd;
+    private final boolean fastRead;
+    private final int productType;
+    private final int storageSize;
+
+    UltralightType(int pages, int userStart, int userEnd, boolean fastRead,
+                   int productType, int storageSize)
+    {
+        this.pages = pages;
+        this.userStart = userStart;
+        this.userEnd = userEnd;
+        this.fastRead = fastRead;
+        this.productType = productType;
+        this.storageSize = storageSize;
+    }
+
+    /**
+     * Identify a card from its GET_VERSION answer.
+     *
+     * @param version The eight bytes version answer.
+     * @return The type, or null if unknown.
+     */
+    public static UltralightType fromVersion(byte[] version)
+    {
+        if (version.length < 8 || version[1] != 0x04)     // NXP
+            return null;
+        for (UltralightType type: values())
+            if (type.productType == version[2]
+                && type.storageSize == version[6])
+            {
+                return type;
+            }
+        return null;
+    }
+
+    /** Return total number of pages. */
+    public int getPageCount()
+    {
+        return pages;
+    }
+
+    /** Return first page of user memory. */
+    public int getUserStart()
+    {
+        return userStart;
+    }
+
+    /** Return last page of user memory, inclusive. */
+    public int getUserEnd()
+    {
+        return userEnd;
+    }
+
+    /** Return size of user memory, bytes. */
+    public int getUserSize()
+    {
+        return (userEnd - userStart + 1) * PAGE_SIZE;
+    }
+
+    /** Return true if the card supports FAST_READ. */
+    public boolean hasFastRead()
+    {
+        return fastRead;
+    }
+}
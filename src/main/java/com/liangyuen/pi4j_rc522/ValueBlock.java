@@ -0,0 +1,116 @@
+package com.liangyuen.pi4j_rc522;
+
+/**
+ * A MIFARE Classic value block: a signed 32-bit value and an address
+ * byte, each stored with redundant and inverted copies so the card can
+ * check the block before increment, decrement and restore.
+ *
+ * Layout: value, ~value, value (four bytes each, LSB first), then
+ * address, ~address, address, ~address.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public final class ValueBlock
+{
+    private final int value;
+    private final int address;
+
+    /**
+     * Create a value block.
+     *
+     * @param value The value.
+     * @param address Address byte, by convention the block address
+     *                 used to back up the value.
+     */
+    public ValueBlock(int value, int address)
+    {
+        this.value = value;
+        this.address = address & 0xFF;
+    }
+
+    /**
+     * Decode 16 bytes read from a block.
+     *
+     * @return The value block, or null if data isn't in value block
+     *         format or fails the integrity check.
+     */
+    public static ValueBlock decode(byte[] data)
+    {
+        if (data.length != 16)
+            return null;
+        int value = getInt(data, 0);
+        if (getInt(data, 4) != ~value || getInt(data, 8) != value)
+            return null;
+        if (data[12] != data[14] || data[13] != data[15]
+            || data[12] != (byte) ~data[13])
+        {
+            return null;
+        }
+        return new ValueBlock(value, data[12]);
+    }
+
+    /** Return true if data is a valid value block. */
+    public static boolean isValid(byte[] data)
+    {
+        return decode(data) != null;
+    }
+
+    /** Return the 16 bytes block. */
+    public byte[] toBytes()
+    {
+        byte[] data = new byte[16];
+        putInt(data, 0, value);
+        putInt(data, 4, ~value);
+        putInt(data, 8, value);
+        data[12] = data[14] = (byte) address;
+        data[13] = data[15] = (byte) ~address;
+        return data;
+    }
+
+    public int getValue()
+    {
+        return value;
+    }
+
+    public int getAddress()
+    {
+        return address;
+    }
+
+    /** Read a little endian int at given offset. */
+    static int getInt(byte[] data, int offset)
+    {
+        return (data[offset] & 0xFF)
+            | (data[offset + 1] & 0xFF) << 8
+            | (data[offset + 2] & 0xFF) << 16
+            | (data[offset + 3] & 0xFF) << 24;
+    }
+
+    /** Store a little endian int at given offset. */
+    static void putInt(byte[] data, int offset, int value)
+    {
+        for (int i = 0; i < 4; i += 1)
+            data[offset + i] = (byte) (value >> (8 * i));
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        if (!(other instanceof ValueBlock))
+            return false;
+        ValueBlock that = (ValueBlock) other;
+        return value == that.value && address == that.address;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return value * 31 + address;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("value=%d addr=%02x", value, address);
+    }
+}
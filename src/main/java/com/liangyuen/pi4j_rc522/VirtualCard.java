@@ -0,0 +1,277 @@
+package com.liangyuen.pi4j_rc522;
+
+/**
+ * An ISO/IEC 14443-3 type A card living in the RF field of a
+ * SimulatedRC522.
+ *
+ * The base class handles the card states IDLE, READY, ACTIVE and HALT,
+ * REQA/WUPA, bit oriented anticollision and select over all cascade
+ * levels and HLTA. Subclasses handle the commands available in the
+ * ACTIVE state.
+ *
+ * Frames are bit streams where bit 0 is the lowest bit in byte 0, i. e.
+ * in the order they are sent over the air.
+ */
+public abstract class VirtualCard
+{
+    /** A card response frame. */
+    protected static final class Response
+    {
+        /** The response bits. */
+        final byte[] data;
+        /** Number of valid bits in data. */
+        final int bits;
+
+        Response(byte[] data, int bits)
+        {
+            this.data = data;
+            this.bits = bits;
+        }
+    }
+
+    protected enum State {IDLE, READY, ACTIVE, HALT};
+
+    protected static final byte CASCADE_TAG = (byte) 0x88;
+    protected static final byte SAK_CASCADE = (byte) 0x04;
+    protected static final byte ACK = (byte) 0x0A;
+    protected static final byte NAK = (byte) 0x04;
+
+    private static final int[] SEL = {0x93, 0x95, 0x97};
+
+    private final byte[] uid;
+    private final byte[] atqa;
+    private final byte sak;
+
+    private State state = State.IDLE;
+    private boolean fromHalt = false;
+    private int level = 0;
+
+    /**
+     * Create a card.
+     *
+     * @param uid Card UID, 4, 7 or 10 bytes.
+     * @param atqa Answer to REQA, two bytes.
+     * @param sak Select acknowledge sent when select is complete.
+     */
+    protected VirtualCard(byte[] uid, byte[] atqa, byte sak)
+    {
+        if (uid.length != 4 && uid.length != 7 && uid.length != 10)
+            throw new IllegalArgumentException("UID must be 4, 7 or 10 bytes");
+        this.uid = uid.clone();
+        this.atqa = atqa.clone();
+        this.sak = sak;
+    }
+
+    /** Return the card UID. */
+    public byte[] getUid()
+    {
+        return uid.clone();
+    }
+
+    /** Return the SAK sent on a complete select. */
+    public byte getSak()
+    {
+        return sak;
+    }
+
+    /** Return current card state. */
+    protected State getState()
+    {
+        return state;
+    }
+
+    /** Number of cascade levels needed for the UID, 1-3. */
+    protected int cascadeLevels()
+    {
+        return uid.length == 4 ? 1 : uid.length == 7 ? 2 : 3;
+    }
+
+    /**
+     * Return the 40 bit UID CLn field (4 bytes + BCC) for given
+     * cascade level.
+     */
+    protected byte[] cascadeField(int level)
+    {
+        byte[] field = new byte[5];
+        if (level < cascadeLevels() - 1) {
+            field[0] = CASCADE_TAG;
+            System.arraycopy(uid, level * 3, field, 1, 3);
+        }
+        else
+            System.arraycopy(uid, level * 3, field, 0, 4);
+        field[4] = (byte) (field[0] ^ field[1] ^ field[2] ^ field[3]);
+        return field;
+    }
+
+    /** Field is switched on or off: card returns to IDLE. */
+    void powerReset()
+    {
+        state = State.IDLE;
+        fromHalt = false;
+        onDeselect();
+    }
+
+    /**
+     * Leave ACTIVE or READY state after an unexpected frame or an error.
+     * Cards woken from HALT return to HALT, others to IDLE.
+     */
+    protected void deselect()
+    {
+        state = fromHalt ? State.HALT : State.IDLE;
+        onDeselect();
+    }
+
+    /** Hook invoked when card leaves the ACTIVE state. */
+    protected void onDeselect()
+    {
+    }
+
+    /** Return true if a crypto session is active on the card. */
+    boolean isAuthenticated()
+    {
+        return false;
+    }
+
+    /**
+     * Handle a MFAuthent command from the reader. Only meaningful for
+     * MIFARE Classic cards.
+     *
+     * @return true if card accepts the key.
+     */
+    boolean authenticate(byte mode, int blockAddress, byte[] key, byte[] uid)
+    {
+        return false;
+    }
+
+    /**
+     * Handle a frame received in the ACTIVE state, HLTA excluded.
+     *
+     * @param frame Frame data, including any CRC.
+     * @param bits Number of valid bits in frame.
+     * @return Response or null if card is silent.
+     */
+    protected abstract Response process(byte[] frame, int bits);
+
+    /**
+     * Handle a frame from the reader.
+     *
+     * @param frame Frame data, including any CRC.
+     * @param bits Number of valid bits in frame.
+     * @return Response or null if card is silent.
+     */
+    Response receive(byte[] frame, int bits)
+    {
+        if (bits == 7) {
+            int cmd = frame[0] & 0x7F;
+            if ((cmd == RaspRC522.PICC_REQIDL && state == State.IDLE)
+                || (cmd == RaspRC522.PICC_REQALL
+                    && (state == State.IDLE || state == State.HALT)))
+            {
+                fromHalt = state == State.HALT;
+                state = State.READY;
+                level = 0;
+                return new Response(atqa.clone(), 16);
+            }
+            if (state == State.READY || state == State.ACTIVE)
+                deselect();
+            return null;
+        }
+        switch (state) {
+            case READY:
+                return anticollision(frame, bits);
+            case ACTIVE:
+                if (bits == 32 && frame[0] == RaspRC522.PICC_HALT
+                    && frame[1] == 0 && crcValid(frame, 4))
+                {
+                    state = State.HALT;
+                    onDeselect();
+                    return null;
+                }
+                return process(frame, bits);
+            default:
+                return null;
+        }
+    }
+
+    /** Handle anticollision and select frames in READY state. */
+    private Response anticollision(byte[] frame, int bits)
+    {
+        if (bits < 16 || (frame[0] & 0xFF) != SEL[level]) {
+            deselect();
+            return null;
+        }
+        byte[] field = cascadeField(level);
+        int nvb = frame[1] & 0xFF;
+        if (nvb == 0x70) {
+            if (bits != 72 || !crcValid(frame, 9))
+                return null;
+            for (int i = 0; i < 5; i += 1)
+                if (frame[i + 2] != field[i])
+                    return null;
+            if (level < cascadeLevels() - 1) {
+                level += 1;
+                return withCrc(new byte[] {SAK_CASCADE});
+            }
+            state = State.ACTIVE;
+            return withCrc(new byte[] {sak});
+        }
+        int known = ((nvb >> 4) - 2) * 8 + (nvb & 0x0F);
+        if (known < 0 || known >= 40 || bits != 16 + known)
+            return null;
+        for (int i = 0; i < known; i += 1)
+            if (getBit(frame, 16 + i) != getBit(field, i))
+                return null;
+        int count = 40 - known;
+        byte[] data = new byte[(count + 7) / 8];
+        for (int i = 0; i < count; i += 1)
+            setBit(data, i, getBit(field, known + i));
+        return new Response(data, count);
+    }
+
+    /** Return bit at given position in a frame. */
+    static boolean getBit(byte[] data, int bit)
+    {
+        return (data[bit / 8] & (1 << (bit % 8))) != 0;
+    }
+
+    /** Set or clear bit at given position in a frame. */
+    static void setBit(byte[] data, int bit, boolean value)
+    {
+        if (value)
+            data[bit / 8] |= (byte) (1 << (bit % 8));
+        else
+            data[bit / 8] &= (byte) ~(1 << (bit % 8));
+    }
+
+    /**
+     * Check the CRC_A of a frame.
+     *
+     * @param frame Frame data.
+     * @param length Frame length including two CRC bytes.
+     */
+    protected static boolean crcValid(byte[] frame, int length)
+    {
+        return frame.length >= length && CrcA.check(frame, length);
+    }
+
+    /** Return a response holding data followed by CRC_A. */
+    protected static Response withCrc(byte[] data)
+    {
+        byte[] frame = new byte[data.length + 2];
+        System.arraycopy(data, 0, frame, 0, data.length);
+        CrcA.append(frame, data.length);
+        return new Response(frame, frame.length * 8);
+    }
+
+    /** Return a 4-bit ACK response. */
+    protected static Response ack()
+    {
+        return new Response(new byte[] {ACK}, 4);
+    }
+
+    /** Return a 4-bit NAK response. */
+    protected static Response nak()
+    {
+        return new Response(new byte[] {NAK}, 4);
+    }
+}
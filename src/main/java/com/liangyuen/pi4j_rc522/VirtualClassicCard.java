@@ -0,0 +1,241 @@
+package com.liangyuen.pi4j_rc522;
+
+/**
+ * A MIFARE Classic 1K or 4K card for SimulatedRC522.
+ *
+ * Memory layout follows the real cards: 1K has 16 sectors of 4 blocks,
+ * 4K has 32 sectors of 4 blocks followed by 8 sectors of 16 blocks. The
+ * last block in each sector is the sector trailer holding key A, the
+ * access bits and key B. Blocks are initialized to transport
+ * configuration, with all keys set to ff:ff:ff:ff:ff:ff.
+ *
+ * Authentication compares keys only: the access bits are not enforced
+ * and there is no Crypto1 on the simulated air interface. Value blocks
+ * support increment, decrement, restore and transfer through the
+ * transfer buffer like the real cards.
+ */
+public class VirtualClassicCard extends VirtualCard
+{
+    public static final int SIZE_1K = 1024;
+    public static final int SIZE_4K = 4096;
+
+    private static final byte[] TRANSPORT_TRAILER = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0x07, (byte) 0x80, (byte) 0x69,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF
+    };
+
+    private final byte[] memory;
+    private int authSector = -1;
+    private int pendingWrite = -1;
+    private int pendingValue = -1;
+    private byte valueCommand = 0;
+    private ValueBlock transferBuffer = null;
+
+    /** Create a 1K card with given UID. */
+    public VirtualClassicCard(byte[] uid)
+    {
+        this(uid, SIZE_1K);
+    }
+
+    /**
+     * Create a card.
+     *
+     * @param uid Card UID, 4, 7 or 10 bytes.
+     * @param size SIZE_1K or SIZE_4K.
+     */
+    public VirtualClassicCard(byte[] uid, int size)
+    {
+        super(uid, atqa(uid, size), size == SIZE_4K ? (byte) 0x18 : 0x08);
+        if (size != SIZE_1K && size != SIZE_4K)
+            throw new IllegalArgumentException("Bad card size: " + size);
+        memory = new byte[size];
+        System.arraycopy(uid, 0, memory, 0, uid.length);
+        if (uid.length == 4)
+            memory[4] = (byte) (uid[0] ^ uid[1] ^ uid[2] ^ uid[3]);
+        for (int sector = 0; sector < getSectorCount(); sector += 1)
+            System.arraycopy(TRANSPORT_TRAILER, 0,
+                             memory, trailerBlock(sector) * 16, 16);
+    }
+
+    private static byte[] atqa(byte[] uid, int size)
+    {
+        int bits = size == SIZE_4K ? 0x02 : 0x04;
+        if (uid.length == 7)
+            bits |= 0x40;
+        else if (uid.length == 10)
+            bits |= 0x80;
+        return new byte[] {(byte) bits, 0x00};
+    }
+
+    /** Return number of blocks, 64 or 256. */
+    public int getBlockCount()
+    {
+        return memory.length / 16;
+    }
+
+    /** Return number of sectors, 16 or 40. */
+    public int getSectorCount()
+    {
+        return memory.length == SIZE_1K ? 16 : 40;
+    }
+
+    /** Return sector containing given block. */
+    public static int sectorOf(int block)
+    {
+        return block < 128 ? block / 4 : 32 + (block - 128) / 16;
+    }
+
+    /** Return block address of the trailer in given sector. */
+    public static int trailerBlock(int sector)
+    {
+        return sector < 32 ? sector * 4 + 3 : 128 + (sector - 32) * 16 + 15;
+    }
+
+    /** Return a copy of the 16 bytes in given block. */
+    public byte[] getBlock(int block)
+    {
+        byte[] data = new byte[16];
+        System.arraycopy(memory, block * 16, data, 0, 16);
+        return data;
+    }
+
+    /** Update given block with 16 bytes from data. */
+    public void setBlock(int block, byte[] data)
+    {
+        System.arraycopy(data, 0, memory, block * 16, 16);
+    }
+
+    /** Set the keys in the trailer of given sector. */
+    public void setKeys(int sector, byte[] keyA, byte[] keyB)
+    {
+        int offset = trailerBlock(sector) * 16;
+        System.arraycopy(keyA, 0, memory, offset, 6);
+        System.arraycopy(keyB, 0, memory, offset + 10, 6);
+    }
+
+    @Override
+    protected void onDeselect()
+    {
+        authSector = -1;
+        pendingWrite = -1;
+        pendingValue = -1;
+        transferBuffer = null;
+    }
+
+    @Override
+    boolean isAuthenticated()
+    {
+        return authSector != -1;
+    }
+
+    @Override
+    boolean authenticate(byte mode, int blockAddress, byte[] key, byte[] uid)
+    {
+        if (getState() != State.ACTIVE)
+            return false;
+        byte[] myUid = getUid();
+        boolean ok = blockAddress < getBlockCount();
+        for (int i = 0; ok && i < 4; i += 1)
+            ok = uid[i] == myUid[myUid.length - 4 + i];
+        if (ok) {
+            int sector = sectorOf(blockAddress);
+            int offset = trailerBlock(sector) * 16
+                + (mode == RaspRC522.PICC_AUTHENT1B ? 10 : 0);
+            for (int i = 0; ok && i < 6; i += 1)
+                ok = memory[offset + i] == key[i];
+            if (ok) {
+                authSector = sector;
+                pendingWrite = -1;
+                pendingValue = -1;
+                transferBuffer = null;
+                return true;
+            }
+        }
+        deselect();
+        return false;
+    }
+
+    @Override
+    protected Response process(byte[] frame, int bits)
+    {
+        if (pendingWrite != -1) {
+            int block = pendingWrite;
+            pendingWrite = -1;
+            if (bits != 18 * 8 || !crcValid(frame, 18)) {
+                deselect();
+                return nak();
+            }
+            System.arraycopy(frame, 0, memory, block * 16, 16);
+            return ack();
+        }
+        if (pendingValue != -1)
+            return valueOperand(frame, bits);
+        if (bits != 32 || !crcValid(frame, 4)) {
+            deselect();
+            return null;
+        }
+        int block = frame[1] & 0xFF;
+        if (block >= getBlockCount() || authSector != sectorOf(block)) {
+            deselect();
+            return nak();
+        }
+        switch (frame[0]) {
+            case RaspRC522.PICC_READ:
+                byte[] data = getBlock(block);
+                if (block == trailerBlock(authSector))
+                    for (int i = 0; i < 6; i += 1)
+                        data[i] = 0;
+                return withCrc(data);
+            case RaspRC522.PICC_WRITE:
+                if (block == 0)
+                    return nak();
+                pendingWrite = block;
+                return ack();
+            case RaspRC522.PICC_INCREMENT:
+            case RaspRC522.PICC_DECREMENT:
+            case RaspRC522.PICC_RESTORE:
+                if (!ValueBlock.isValid(getBlock(block)))
+                    return nak();
+                pendingValue = block;
+                valueCommand = frame[0];
+                return ack();
+            case RaspRC522.PICC_TRANSFER:
+                if (transferBuffer == null || block == 0
+                    || block == trailerBlock(authSector))
+                {
+                    return nak();
+                }
+                setBlock(block, transferBuffer.toBytes());
+                transferBuffer = null;
+                return ack();
+            default:
+                deselect();
+                return nak();
+        }
+    }
+
+    /**
+     * Handle the operand frame of increment, decrement or restore. The
+     * card is silent unless the operation fails.
+     */
+    private Response valueOperand(byte[] frame, int bits)
+    {
+        int block = pendingValue;
+        pendingValue = -1;
+        if (bits != 6 * 8 || !crcValid(frame, 6)) {
+            deselect();
+            return nak();
+        }
+        ValueBlock current = ValueBlock.decode(getBlock(block));
+        int operand = ValueBlock.getInt(frame, 0);
+        int value = current.getValue();
+        if (valueCommand == RaspRC522.PICC_INCREMENT)
+            value += operand;
+        else if (valueCommand == RaspRC522.PICC_DECREMENT)
+            value -= operand;
+        transferBuffer = new ValueBlock(value, current.getAddress());
+        return null;
+    }
+}
@@ -0,0 +1,141 @@
+package com.liangyuen.pi4j_rc522;
+
+/**
+ * A MIFARE Ultralight or NTAG21x card for SimulatedRC522.
+ *
+ * Memory is a number of four byte pages. Pages 0-2 hold the 7 byte UID
+ * with check bytes, page 3 the capability container and user memory
+ * starts at page 4. READ returns four pages, wrapping around at the end
+ * of memory; FAST_READ and GET_VERSION are supported by all types but
+ * the original Ultralight. WRITE (0xA2) updates a single page. Lock
+ * bytes and passwords are not enforced.
+ */
+public class VirtualUltralightCard extends VirtualCard
+{
+    public static final byte WRITE = (byte) 0xA2;
+
+    private final UltralightType type;
+    private final byte[] memory;
+
+    /**
+     * Create a card with empty user memory.
+     *
+     * @param uid Card UID, 7 bytes.
+     * @param type Card type, sets memory size and supported commands.
+     */
+    public VirtualUltralightCard(byte[] uid, UltralightType type)
+    {
+        super(uid, new byte[] {0x44, 0x00}, (byte) 0x00);
+        if (uid.length != 7)
+            throw new IllegalArgumentException("UID must be 7 bytes");
+        this.type = type;
+        memory = new byte[type.getPageCount() * UltralightType.PAGE_SIZE];
+        System.arraycopy(uid, 0, memory, 0, 3);
+        memory[3] = (byte) (CASCADE_TAG ^ uid[0] ^ uid[1] ^ uid[2]);
+        System.arraycopy(uid, 3, memory, 4, 4);
+        memory[8] = (byte) (uid[3] ^ uid[4] ^ uid[5] ^ uid[6]);
+        memory[12] = (byte) 0xE1;
+        memory[13] = 0x10;
+        memory[14] = (byte) (type.getUserSize() / 8);
+    }
+
+    /** Return the card type. */
+    public UltralightType getType()
+    {
+        return type;
+    }
+
+    /** Return a copy of the four bytes in given page. */
+    public byte[] getPage(int page)
+    {
+        byte[] data = new byte[UltralightType.PAGE_SIZE];
+        System.arraycopy(memory, page * UltralightType.PAGE_SIZE, data, 0,
+                         data.length);
+        return data;
+    }
+
+    /** Update given page with four bytes from data. */
+    public void setPage(int page, byte[] data)
+    {
+        System.arraycopy(data, 0, memory, page * UltralightType.PAGE_SIZE,
+                         UltralightType.PAGE_SIZE);
+    }
+
+    /** Return the GET_VERSION answer, or null if not supported. */
+    private byte[] version()
+    {
+        if (!type.hasFastRead())
+            return null;
+        boolean ntag = type.name().startsWith("NTAG");
+        int storage = 0;
+        switch (type) {
+            case ULTRALIGHT_EV1_MF0UL11: storage = 0x0B; break;
+            case ULTRALIGHT_EV1_MF0UL21: storage = 0x0E; break;
+            case NTAG213: storage = 0x0F; break;
+            case NTAG215: storage = 0x11; break;
+            case NTAG216: storage = 0x13; break;
+            default: break;
+        }
+        return new byte[] {0x00, 0x04, (byte) (ntag ? 0x04 : 0x03),
+                           (byte) (ntag ? 0x02 : 0x01), 0x01, 0x00,
+                           (byte) storage, 0x03};
+    }
+
+    /** Return pages start to end inclusive, wrapping around. */
+    private byte[] pages(int start, int end)
+    {
+        int pages = type.getPageCount();
+        byte[] data = new byte[(end - start + 1) * UltralightType.PAGE_SIZE];
+        for (int i = 0; i < data.length; i += 1)
+            data[i] = memory[(start * UltralightType.PAGE_SIZE + i)
+                             % (pages * UltralightType.PAGE_SIZE)];
+        return data;
+    }
+
+    @Override
+    protected Response process(byte[] frame, int bits)
+    {
+        int length = bits / 8;
+        if (bits % 8 != 0 || length < 3 || !crcValid(frame, length)) {
+            deselect();
+            return null;
+        }
+        int pages = type.getPageCount();
+        switch (frame[0]) {
+            case RaspRC522.PICC_READ:
+                if (length == 4 && (frame[1] & 0xFF) < pages) {
+                    int start = frame[1] & 0xFF;
+                    return withCrc(pages(start, start + 3));
+                }
+                break;
+            case RaspRC522.PICC_FAST_READ:
+                int start = frame[1] & 0xFF;
+                int end = frame[2] & 0xFF;
+                if (length == 5 && type.hasFastRead() && start <= end
+                    && end < pages)
+                {
+                    return withCrc(pages(start, end));
+                }
+                break;
+            case RaspRC522.PICC_GET_VERSION:
+                byte[] version = version();
+                if (length == 3 && version != null)
+                    return withCrc(version);
+                deselect();
+                return null;
+            case WRITE:
+                int page = frame[1] & 0xFF;
+                if (length == 8 && page >= 2 && page < pages) {
+                    System.arraycopy(frame, 2, memory,
+                                     page * UltralightType.PAGE_SIZE,
+                                     UltralightType.PAGE_SIZE);
+                    return ack();
+                }
+                break;
+            default:
+                break;
+        }
+        deselect();
+        return nak();
+    }
+}
@@ -0,0 +1,229 @@
+package com.liangyuen.pi4j_rc522;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.pi4j.io.gpio.GpioFactory;
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.PinPullResistance;
+import com.pi4j.io.gpio.RaspiPin;
+import com.pi4j.io.gpio.event.GpioPinDigitalStateChangeEvent;
+import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+import com.pi4j.wiringpi.Gpio;
+import com.pi4j.wiringpi.Spi;
+
+/**
+ * RC522Transport using the wiringPi SPI and GPIO bindings in pi4j.
+ *
+ * Several instances can share the SPI bus, each one using either a
+ * hardware chip select (CE0/CE1) or a GPIO pin as chip select. All
+ * transfers are serialized on a bus lock shared by all instances, so
+ * readers can be used concurrently from different threads. Readers with
+ * a GPIO chip select still use one of the SPI channels; the hardware
+ * chip select of that channel is asserted during their transfers and
+ * must not be connected to another reader.
+ *
+ * Copyright (c) Liang Yuen, 2016
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class WiringPiTransport implements RC522Transport
+{
+    /** Serializes all transfers on the SPI bus. */
+    private static final ReentrantLock BUS_LOCK = new ReentrantLock();
+
+    /** Speed each SPI channel is set up with, 0 if not set up. */
+    private static final int[] channelSpeed = new int[2];
+    /** True for channels whose speed was changed using setSpeed(). */
+    private static final boolean[] speedChanged = new boolean[2];
+
+    private final int spiChannel;
+    private final int rstPinNumber;
+    private final int csPinNumber;
+
+    private GpioPinDigitalInput irqInput = null;
+    private final ReentrantLock irqLock = new ReentrantLock();
+    private final Condition irqAsserted = irqLock.newCondition();
+
+    /**
+     * Set up the SPI channel and the reset pin.
+     *
+     * @param spiChannel SPI channel, 0 or 1 (CE0/CE1).
+     * @param speed Transfer speed as defined by com.pi4j.io.spi.imp,
+     *              in range  500kHz - 32MHz.
+     * @param rstPinNumber The GPIO pin wired to the reader's reset pin.
+     */
+    public WiringPiTransport(int spiChannel, int speed, int rstPinNumber)
+    {
+        this(spiChannel, speed, rstPinNumber, -1);
+    }
+
+    /**
+     * Set up the SPI channel, the reset pin and an optional GPIO chip
+     * select.
+     *
+     * @param spiChannel SPI channel, 0 or 1 (CE0/CE1).
+     * @param speed Transfer speed as defined by com.pi4j.io.spi.imp,
+     *              in range  500kHz - 32MHz. All readers on the same
+     *              channel must use the same speed, unless it has been
+     *              changed by setSpeed(), e.g. by SpiCalibrator. The
+     *              channel then keeps the changed speed.
+     * @param rstPinNumber The GPIO pin wired to the reader's reset pin.
+     * @param csPinNumber The GPIO pin wired to the reader's chip select
+     *                    (SDA) pin, or -1 to use the hardware chip select
+     *                    of spiChannel.
+     */
+    public WiringPiTransport(int spiChannel, int speed, int rstPinNumber,
+                             int csPinNumber)
+    {
+        if (speed < 500000 || speed > 32000000)
+            throw new IllegalArgumentException("Speed out of range");
+        if (spiChannel < 0 || spiChannel > 1)
+            throw new IllegalArgumentException("SPI channel must be 0 or 1");
+        this.spiChannel = spiChannel;
+        this.rstPinNumber = rstPinNumber;
+        this.csPinNumber = csPinNumber;
+        Gpio.wiringPiSetup();           //Enable wiringPi pin schema
+        setupChannel(spiChannel, speed);
+        Gpio.pinMode(rstPinNumber, Gpio.OUTPUT);
+        if (csPinNumber != -1)
+        {
+            Gpio.pinMode(csPinNumber, Gpio.OUTPUT);
+            Gpio.digitalWrite(csPinNumber, Gpio.HIGH);
+        }
+    }
+
+    /**
+     * Change the clock of the SPI channel. Since all readers on the
+     * channel share the clock, this affects all of them. wiringPi opens
+     * a new file descriptor for each setup, so this is meant for
+     * calibration and similar rare changes.
+     *
+     * @param speed Transfer speed in range 500kHz - 32MHz.
+     */
+    @Override
+    public boolean setSpeed(int speed)
+    {
+        if (speed < 500000 || speed > 32000000)
+            throw new IllegalArgumentException("Speed out of range");
+        BUS_LOCK.lock();
+        try {
+            resetupChannel(spiChannel, speed);
+        }
+        finally {
+            BUS_LOCK.unlock();
+        }
+        return true;
+    }
+
+    /** Open a SPI channel again using a new speed. */
+    private static synchronized void resetupChannel(int channel, int speed)
+    {
+        if (channelSpeed[channel] == speed)
+            return;
+        int fd = Spi.wiringPiSPISetup(channel, speed);
+        if (fd <= -1)
+            throw new IllegalStateException("SPI communication setup error");
+        channelSpeed[channel] = speed;
+        speedChanged[channel] = true;
+    }
+
+    /** Open a SPI channel unless already done by another instance. */
+    private static synchronized void setupChannel(int channel, int speed)
+    {
+        if (channelSpeed[channel] == speed || speedChanged[channel])
+            return;
+        if (channelSpeed[channel] != 0)
+            throw new IllegalStateException(
+                "SPI channel already set up using another speed");
+        int fd = Spi.wiringPiSPISetup(channel, speed);
+        if (fd <= -1)
+            throw new IllegalStateException("SPI communication setup error");
+        channelSpeed[channel] = speed;
+    }
+
+    @Override
+    public int transfer(byte[] data, int length)
+    {
+        BUS_LOCK.lock();
+        try {
+            if (csPinNumber == -1)
+                return Spi.wiringPiSPIDataRW(spiChannel, data, length);
+            Gpio.digitalWrite(csPinNumber, Gpio.LOW);
+            try {
+                return Spi.wiringPiSPIDataRW(spiChannel, data, length);
+            }
+            finally {
+                Gpio.digitalWrite(csPinNumber, Gpio.HIGH);
+            }
+        }
+        finally {
+            BUS_LOCK.unlock();
+        }
+    }
+
+    @Override
+    public void setResetPin(boolean high)
+    {
+        Gpio.digitalWrite(rstPinNumber, high ? Gpio.HIGH : Gpio.LOW);
+    }
+
+    /**
+     * Use the reader's IRQ output, which the driver configures as active
+     * low push-pull, to wait for command completion.
+     *
+     * @param irqPinNumber GPIO pin (wiringPi numbering) wired to IRQ.
+     */
+    public void enableIrq(int irqPinNumber)
+    {
+        irqInput = GpioFactory.getInstance().provisionDigitalInputPin(
+            RaspiPin.getPinByAddress(irqPinNumber), PinPullResistance.PULL_UP);
+        irqInput.addListener(new GpioPinListenerDigital() {
+            @Override
+            public void handleGpioPinDigitalStateChangeEvent(
+                GpioPinDigitalStateChangeEvent event)
+            {
+                if (event.getState().isLow())
+                {
+                    irqLock.lock();
+                    try {
+                        irqAsserted.signalAll();
+                    }
+                    finally {
+                        irqLock.unlock();
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public boolean hasIrq()
+    {
+        return irqInput != null;
+    }
+
+    @Override
+    public boolean waitForIrq(long timeoutNanos)
+    {
+        if (irqInput == null)
+            return false;
+        long remaining = timeoutNanos;
+        irqLock.lock();
+        try {
+            while (irqInput.isHigh())
+            {
+                if (remaining <= 0)
+                    return false;
+                remaining = irqAsserted.awaitNanos(remaining);
+            }
+            return true;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return irqInput.isLow();
+        }
+        finally {
+            irqLock.unlock();
+        }
+    }
+}
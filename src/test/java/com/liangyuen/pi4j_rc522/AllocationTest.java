@@ -0,0 +1,127 @@
+package com.liangyuen.pi4j_rc522;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+/**
+ * Checks that the register and frame path allocates nothing in steady
+ * state, run against StubTransport which allocates nothing itself.
+ * Allocations are read using com.sun.management.ThreadMXBean. Run with
+ * -XX:-DoEscapeAnalysis (see pom.xml) so that short lived arrays the
+ * server compiler may scalar replace are still counted.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class AllocationTest
+{
+    private static final byte[] UID = {0x12, 0x34, 0x56, 0x78};
+    private static final byte[] KEY = {
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+        (byte) 0xFF, (byte) 0xFF, (byte) 0xFF
+    };
+    private static final CardListener IGNORE = new CardListener() {
+        @Override
+        public void cardArrived(RaspRC522 reader, byte[] uid)
+        {
+        }
+
+        @Override
+        public void cardRemoved(RaspRC522 reader, byte[] uid)
+        {
+        }
+    };
+
+    private static final int CALLS = 10000;
+    /** Rounds of CALLS calls allowed for the JIT to settle. */
+    private static final int MAX_ROUNDS = 50;
+    /** Consecutive rounds without allocations required. */
+    private static final int CLEAN_ROUNDS = 3;
+
+    /**
+     * Run op in rounds of CALLS calls until CLEAN_ROUNDS consecutive
+     * rounds allocate nothing, or MAX_ROUNDS rounds are done. Early
+     * rounds allocate while classes load and the JIT compiles.
+     *
+     * @return Bytes allocated in the last round.
+     */
+    private static long steadyStateAllocation(Runnable op)
+    {
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported()
+                   && threads.isThreadAllocatedMemoryEnabled());
+
+        long id = Thread.currentThread().getId();
+        long allocated = -1;
+        int clean = 0;
+        for (int round = 0; round < MAX_ROUNDS && clean < CLEAN_ROUNDS;
+             round += 1)
+        {
+            long before = threads.getThreadAllocatedBytes(id);
+            for (int i = 0; i < CALLS; i += 1)
+                op.run();
+            allocated = threads.getThreadAllocatedBytes(id) - before;
+            clean = allocated == 0 ? clean + 1 : 0;
+        }
+        return allocated;
+    }
+
+    @Test
+    public void selectAuthenticateReadAllocatesNothing()
+    {
+        final RaspRC522 reader = new RaspRC522(new StubTransport(UID));
+        final int[] backBits = new int[1];
+        final byte[] uid = new byte[5];
+        final byte[] data = new byte[16];
+        final int[] failures = new int[1];
+        Runnable op = new Runnable() {
+            @Override
+            public void run()
+            {
+                if (reader.setupTranscieve(RaspRC522.PICC_REQALL, backBits)
+                        != RaspRC522.MI_OK
+                    || reader.antiColl(uid) != RaspRC522.MI_OK
+                    || reader.selectTag(uid) == 0
+                    || reader.authCard(RaspRC522.PICC_AUTHENT1A, (byte) 4,
+                                       KEY, uid) != RaspRC522.MI_OK
+                    || reader.read((byte) 4, data) != RaspRC522.MI_OK)
+                {
+                    failures[0] += 1;
+                }
+                reader.stopCrypto();
+            }
+        };
+        op.run();
+        assertEquals("Failed calls", 0, failures[0]);
+        long allocated = steadyStateAllocation(op);
+        assertEquals("Failed calls", 0, failures[0]);
+        assertEquals("Bytes allocated in " + CALLS + " calls", 0, allocated);
+    }
+
+    /** CardPoller.pollOnce() with a card present, i. e. a reselect(). */
+    @Test
+    public void pollWithCardPresentAllocatesNothing()
+    {
+        RaspRC522 reader = new RaspRC522(new StubTransport(UID));
+        final CardPoller poller = new CardPoller(reader, IGNORE);
+        poller.pollOnce();
+        assertNotNull("Card not detected", poller.getPresentCard());
+        long allocated = steadyStateAllocation(new Runnable() {
+            @Override
+            public void run()
+            {
+                poller.pollOnce();
+            }
+        });
+        assertNotNull("Card lost", poller.getPresentCard());
+        assertEquals("Bytes allocated in " + CALLS + " polls", 0, allocated);
+    }
+}
@@ -0,0 +1,112 @@
+package com.liangyuen.pi4j_rc522;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * RaspRC522 reading through a BlockCache, run against SimulatedRC522.
+ * Checks that cached blocks are only served while the card read stays
+ * selected and authenticated using the same key.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class BlockCacheTest
+{
+    private static final byte[] UID = {0x11, 0x22, 0x33, 0x44};
+    private static final byte[] KEY = {-1, -1, -1, -1, -1, -1};
+    private static final byte[] KEY_B = {2, 2, 2, 2, 2, 2};
+    private static final byte BLOCK = 5;
+
+    private final SimulatedRC522 sim = new SimulatedRC522();
+    private final RaspRC522 reader = new RaspRC522(sim);
+    private final BlockCache cache = new BlockCache();
+    private final VirtualClassicCard card = new VirtualClassicCard(UID);
+    private final byte[] fives = new byte[16];
+
+    public BlockCacheTest()
+    {
+        Arrays.fill(fives, (byte) 5);
+        card.setKeys(1, KEY, KEY_B);
+        card.setBlock(BLOCK, fives);
+        sim.addCard(card);
+        reader.setBlockCache(cache);
+        assertEquals(RaspRC522.MI_OK, reader.reselect(UID));
+    }
+
+    private void authenticate(byte mode, byte[] key)
+    {
+        assertEquals(RaspRC522.MI_OK,
+                     reader.authCard(mode, BLOCK, key, UID));
+    }
+
+    private byte[] read(byte block)
+    {
+        byte[] data = new byte[16];
+        assertEquals(RaspRC522.MI_OK, reader.read(block, data));
+        return data;
+    }
+
+    @Test
+    public void repeatedReadsAreServedFromCache()
+    {
+        authenticate(RaspRC522.PICC_AUTHENT1A, KEY);
+        assertArrayEquals(fives, read(BLOCK));
+        long transceives = reader.getMetrics().getTransceiveCount();
+        authenticate(RaspRC522.PICC_AUTHENT1A, KEY);
+        assertArrayEquals(fives, read(BLOCK));
+        assertArrayEquals(new byte[16], read((byte) (BLOCK + 1)));
+        assertTrue(cache.getHits() >= 2);
+        assertEquals(transceives, reader.getMetrics().getTransceiveCount());
+    }
+
+    @Test
+    public void replacedCardWithSameUidIsNotServed()
+    {
+        authenticate(RaspRC522.PICC_AUTHENT1A, KEY);
+        read(BLOCK);
+        reader.stopCrypto();
+        sim.removeCard(card);
+        sim.addCard(new VirtualClassicCard(UID));
+        assertEquals(RaspRC522.MI_OK, reader.reselect(UID));
+        authenticate(RaspRC522.PICC_AUTHENT1A, KEY);
+        assertArrayEquals(new byte[16], read(BLOCK));
+    }
+
+    @Test
+    public void haltDropsCard()
+    {
+        authenticate(RaspRC522.PICC_AUTHENT1A, KEY);
+        read(BLOCK);
+        assertEquals(1, cache.size());
+        reader.halt();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void otherKeyIsNotServed()
+    {
+        authenticate(RaspRC522.PICC_AUTHENT1A, KEY);
+        read(BLOCK);
+        long misses = cache.getMisses();
+        authenticate(RaspRC522.PICC_AUTHENT1B, KEY_B);
+        assertArrayEquals(fives, read(BLOCK));
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void writtenBlockIsReadBack()
+    {
+        authenticate(RaspRC522.PICC_AUTHENT1A, KEY);
+        read(BLOCK);
+        byte[] sevens = new byte[16];
+        Arrays.fill(sevens, (byte) 7);
+        assertEquals(RaspRC522.MI_OK, reader.write(BLOCK, sevens));
+        assertArrayEquals(sevens, read(BLOCK));
+        assertArrayEquals(sevens, card.getBlock(BLOCK));
+    }
+}
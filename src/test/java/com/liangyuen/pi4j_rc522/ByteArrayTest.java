@@ -0,0 +1,50 @@
+package com.liangyuen.pi4j_rc522;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Hex conversions in ByteArray.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class ByteArrayTest
+{
+    private static final byte[] BYTES = {0x01, (byte) 0xAB, (byte) 0xFF, 0x10};
+
+    @Test
+    public void hexRoundTrip()
+    {
+        String hex = ByteArray.toHex(BYTES);
+        assertEquals("01abff10", hex);
+        assertArrayEquals(BYTES, ByteArray.parse(hex).toBytes());
+        assertEquals(new ByteArray(BYTES), new ByteArray(hex));
+    }
+
+    @Test
+    public void delimitedRoundTrip()
+    {
+        String text = new ByteArray(BYTES).toString(":");
+        assertEquals("01:ab:ff:10", text);
+        assertArrayEquals(BYTES, new ByteArray(text).toBytes());
+        assertArrayEquals(BYTES, ByteArray.parse("01 AB ff 10").toBytes());
+    }
+
+    @Test
+    public void parseAcceptsSingleDigits()
+    {
+        assertArrayEquals(new byte[] {1, 2, 3},
+                          ByteArray.parse("1 2 3").toBytes());
+    }
+
+    @Test
+    public void sliceConvertsOnlyItsBytes()
+    {
+        ByteArray slice = new ByteArray(BYTES).slice(1, 3);
+        assertEquals("abff", slice.toString());
+        assertEquals("ab-ff", slice.toString("-"));
+        assertEquals("", ByteArray.toHex(new byte[0]));
+    }
+}
@@ -0,0 +1,138 @@
+package com.liangyuen.pi4j_rc522;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+import org.junit.Test;
+
+/**
+ * Buffering and backpressure in CardEventPublisher. Events are published
+ * by calling the CardListener methods directly and delivered on the
+ * calling thread.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class CardEventPublisherTest
+{
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable task)
+        {
+            task.run();
+        }
+    };
+
+    /** Subscriber recording events, requesting only when told to. */
+    private static final class Recorder implements Flow.Subscriber<CardEvent>
+    {
+        final List<CardEvent> events = new ArrayList<CardEvent>();
+        Flow.Subscription subscription;
+        boolean completed = false;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription)
+        {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(CardEvent event)
+        {
+            events.add(event);
+        }
+
+        @Override
+        public void onError(Throwable error)
+        {
+            throw new AssertionError(error);
+        }
+
+        @Override
+        public void onComplete()
+        {
+            completed = true;
+        }
+    }
+
+    private final RaspRC522 reader = new RaspRC522(new SimulatedRC522());
+    private final CardEventPublisher publisher =
+        new CardEventPublisher(reader, null, new int[0], DIRECT, 2);
+
+    private static byte[] uid(int i)
+    {
+        return new byte[] {0x01, 0x02, 0x03, (byte) i};
+    }
+
+    @Test
+    public void deliversOnDemand()
+    {
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        publisher.cardArrived(reader, uid(1));
+        assertEquals(0, recorder.events.size());
+        recorder.subscription.request(1);
+        assertEquals(1, recorder.events.size());
+        assertEquals(CardEvent.Type.ARRIVED, recorder.events.get(0).getType());
+        assertArrayEquals(uid(1), recorder.events.get(0).getUid());
+
+        publisher.cardRemoved(reader, uid(1));
+        recorder.subscription.request(5);
+        assertEquals(2, recorder.events.size());
+        assertEquals(CardEvent.Type.REMOVED, recorder.events.get(1).getType());
+        assertEquals(0, publisher.getDroppedCount());
+    }
+
+    @Test
+    public void fullBufferDropsOldest()
+    {
+        Recorder slow = new Recorder();
+        Recorder fast = new Recorder();
+        publisher.subscribe(slow);
+        publisher.subscribe(fast);
+        fast.subscription.request(Long.MAX_VALUE);
+        for (int i = 0; i < 5; i += 1)
+            publisher.cardArrived(reader, uid(i));
+
+        assertEquals(5, fast.events.size());
+        assertEquals(3, publisher.getDroppedCount());
+        slow.subscription.request(Long.MAX_VALUE);
+        assertEquals(2, slow.events.size());
+        assertArrayEquals(uid(3), slow.events.get(0).getUid());
+        assertArrayEquals(uid(4), slow.events.get(1).getUid());
+    }
+
+    @Test
+    public void closeCompletesAfterBufferedEvents()
+    {
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        publisher.cardArrived(reader, uid(1));
+        publisher.close();
+        assertTrue(!recorder.completed);
+        recorder.subscription.request(1);
+        assertEquals(1, recorder.events.size());
+        assertTrue(recorder.completed);
+
+        publisher.cardArrived(reader, uid(2));
+        Recorder late = new Recorder();
+        publisher.subscribe(late);
+        assertTrue(late.completed);
+    }
+
+    @Test
+    public void cancelStopsDelivery()
+    {
+        Recorder recorder = new Recorder();
+        publisher.subscribe(recorder);
+        recorder.subscription.request(Long.MAX_VALUE);
+        recorder.subscription.cancel();
+        publisher.cardArrived(reader, uid(1));
+        assertEquals(0, recorder.events.size());
+    }
+}
@@ -0,0 +1,133 @@
+package com.liangyuen.pi4j_rc522;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Reading MIFARE Classic cards using a KeyRing: dumpClassic(),
+ * authSector() and readBatch(), run against SimulatedRC522.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class ClassicDumpTest
+{
+    private static final byte[] UID = {0x01, 0x02, 0x03, 0x04};
+    private static final byte[] DEFAULT_KEY = {-1, -1, -1, -1, -1, -1};
+    private static final byte[] KEY_A = {1, 1, 1, 1, 1, 1};
+    private static final byte[] KEY_B = {2, 2, 2, 2, 2, 2};
+    private static final byte[] UNUSED_KEY = {3, 3, 3, 3, 3, 3};
+
+    private final SimulatedRC522 sim = new SimulatedRC522();
+    private final RaspRC522 reader = new RaspRC522(sim);
+    private final VirtualClassicCard card =
+        new VirtualClassicCard(UID, VirtualClassicCard.SIZE_1K);
+
+    /**
+     * Sector 1 uses KEY_A, sector 2 can only be read using KEY_B,
+     * sector 3 has no key in the rings used. Each data block except
+     * block 0 starts with its address.
+     */
+    public ClassicDumpTest()
+    {
+        card.setKeys(1, KEY_A, DEFAULT_KEY);
+        card.setKeys(2, UNUSED_KEY, KEY_B);
+        card.setKeys(3, UNUSED_KEY, UNUSED_KEY);
+        for (int block = 1; block < card.getBlockCount(); block += 1)
+        {
+            if (block % 4 == 3)
+                continue;
+            byte[] data = new byte[16];
+            data[0] = (byte) block;
+            card.setBlock(block, data);
+        }
+        sim.addCard(card);
+        assertEquals(RaspRC522.MI_OK, reader.reselect(UID));
+    }
+
+    private static KeyRing ring()
+    {
+        return new KeyRing()
+            .addKey(RaspRC522.PICC_AUTHENT1A, DEFAULT_KEY)
+            .addKey(RaspRC522.PICC_AUTHENT1A, KEY_A)
+            .addKey(RaspRC522.PICC_AUTHENT1B, KEY_B);
+    }
+
+    @Test
+    public void dumpReadsSectorsWithKnownKeys()
+    {
+        ClassicDump dump =
+            reader.dumpClassic(RaspRC522.CLASSIC_1K_SECTORS, ring(), UID);
+        assertEquals(64, dump.getBlockCount());
+        assertFalse(dump.isComplete());
+        for (int block = 1; block < 64; block += 1)
+        {
+            if (block % 4 == 3)
+                continue;
+            boolean readable = RaspRC522.block2Sector(block) != 3;
+            assertEquals("Block " + block, readable,
+                         dump.getStatus(block) == RaspRC522.MI_OK);
+            if (readable)
+                assertEquals(block, dump.getBlock(block)[0]);
+        }
+    }
+
+    @Test
+    public void keyRingCachesWorkingKeys()
+    {
+        KeyRing ring = ring();
+        reader.dumpClassic(RaspRC522.CLASSIC_1K_SECTORS, ring, UID);
+        assertArrayEquals(DEFAULT_KEY, ring.getCachedKey(UID, 0).getKey());
+        assertArrayEquals(KEY_A, ring.getCachedKey(UID, 1).getKey());
+        KeyRing.Key key = ring.getCachedKey(UID, 2);
+        assertEquals(RaspRC522.PICC_AUTHENT1B, key.getMode());
+        assertArrayEquals(KEY_B, key.getKey());
+        assertNull(ring.getCachedKey(UID, 3));
+
+        assertEquals(key, reader.authSector(ring, 2, UID));
+        assertNull(reader.authSector(ring, 3, UID));
+    }
+
+    @Test
+    public void batchReadsBlocksInAnyOrder()
+    {
+        int[][] requests = {{2, 1}, {1, 0}, {0, 1}, {2, 0}, {1, 2}, {0, 2}};
+        BlockBatch batch = new BlockBatch();
+        for (int[] request: requests)
+        {
+            if (request[0] == 2)
+                batch.add(request[0], request[1], RaspRC522.PICC_AUTHENT1B,
+                          KEY_B);
+            else
+                batch.add(request[0], request[1], RaspRC522.PICC_AUTHENT1A,
+                          request[0] == 1 ? KEY_A : DEFAULT_KEY);
+        }
+        assertEquals(RaspRC522.MI_OK, reader.readBatch(batch, UID));
+        assertTrue(batch.isComplete());
+        for (int i = 0; i < requests.length; i += 1)
+        {
+            assertEquals(RaspRC522.MI_OK, batch.getStatus(i));
+            assertEquals(requests[i][0] * 4 + requests[i][1],
+                         batch.getData(i)[0]);
+        }
+    }
+
+    @Test
+    public void batchReportsBlocksWithWrongKey()
+    {
+        BlockBatch batch = new BlockBatch()
+            .add(1, 0, RaspRC522.PICC_AUTHENT1A, KEY_A)
+            .add(3, 0, RaspRC522.PICC_AUTHENT1A, DEFAULT_KEY)
+            .add(1, 1, RaspRC522.PICC_AUTHENT1A, KEY_A);
+        assertTrue(reader.readBatch(batch, UID) != RaspRC522.MI_OK);
+        assertFalse(batch.isComplete());
+        assertEquals(RaspRC522.MI_OK, batch.getStatus(0));
+        assertTrue(batch.getStatus(1) != RaspRC522.MI_OK);
+        assertEquals(RaspRC522.MI_OK, batch.getStatus(2));
+        assertEquals(5, batch.getData(2)[0]);
+    }
+}
@@ -0,0 +1,51 @@
+package com.liangyuen.pi4j_rc522;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * CRC_A checked against the examples in ISO/IEC 14443-3 annex B and the
+ * HLTA frame sent by RaspRC522.halt().
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class CrcATest
+{
+    @Test
+    public void computeMatchesStandardVectors()
+    {
+        assertEquals(0x1EA0, CrcA.compute(new byte[] {0x00, 0x00}, 0, 2));
+        assertEquals(0xCF26, CrcA.compute(new byte[] {0x12, 0x34}, 0, 2));
+        assertEquals(0xCD57, CrcA.compute(new byte[] {0x50, 0x00}, 0, 2));
+    }
+
+    @Test
+    public void computeUsesOffset()
+    {
+        byte[] data = {(byte) 0xAA, 0x12, 0x34, (byte) 0xAA};
+        assertEquals(0xCF26, CrcA.compute(data, 1, 2));
+    }
+
+    @Test
+    public void appendStoresLowByteFirst()
+    {
+        byte[] frame = {0x50, 0x00, 0, 0};
+        CrcA.append(frame, 2);
+        assertEquals(0x57, frame[2] & 0xFF);
+        assertEquals(0xCD, frame[3] & 0xFF);
+        assertTrue(CrcA.check(frame, 4));
+    }
+
+    @Test
+    public void checkRejectsBadFrames()
+    {
+        byte[] frame = {0x50, 0x00, 0x57, (byte) 0xCD};
+        assertTrue(CrcA.check(frame, 4));
+        frame[1] = 0x01;
+        assertFalse(CrcA.check(frame, 4));
+        assertFalse(CrcA.check(new byte[] {0x57, (byte) 0xCD}, 2));
+    }
+}
@@ -0,0 +1,131 @@
+package com.liangyuen.pi4j_rc522;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Cascaded anticollision and select, and inventory of several cards,
+ * run against SimulatedRC522.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class SelectCardTest
+{
+    private static final byte[] UID4 = {0x01, 0x02, 0x03, 0x04};
+    private static final byte[] UID7 = {
+        0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66
+    };
+    private static final byte[] UID10 = {0x04, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+    private static final byte[] KEY = {-1, -1, -1, -1, -1, -1};
+
+    private final SimulatedRC522 sim = new SimulatedRC522();
+    private final RaspRC522 reader = new RaspRC522(sim);
+
+    private Uid select(byte[] uid)
+    {
+        sim.removeAllCards();
+        sim.addCard(new VirtualClassicCard(uid, VirtualClassicCard.SIZE_1K));
+        int[] back_bits = new int[1];
+        assertEquals(RaspRC522.MI_OK,
+                     reader.setupTranscieve(RaspRC522.PICC_REQALL, back_bits));
+        Uid selected = reader.selectCard();
+        assertNotNull(selected);
+        return selected;
+    }
+
+    private void checkSelect(byte[] uid, int levels)
+    {
+        Uid selected = select(uid);
+        assertArrayEquals(uid, selected.getBytes());
+        assertEquals(uid.length, selected.getSize());
+        assertEquals(levels, selected.getCascadeLevels());
+        assertEquals(0x08, selected.getSak());
+        assertEquals(RaspRC522.MI_OK,
+                     reader.authCard(RaspRC522.PICC_AUTHENT1A, (byte) 4, KEY,
+                                     selected.getBytes()));
+        reader.stopCrypto();
+        assertEquals(RaspRC522.MI_OK, reader.reselect(selected.getBytes()));
+    }
+
+    @Test
+    public void selectsSingleSizeUid()
+    {
+        checkSelect(UID4, 1);
+    }
+
+    @Test
+    public void selectsDoubleSizeUid()
+    {
+        checkSelect(UID7, 2);
+    }
+
+    @Test
+    public void selectsTripleSizeUid()
+    {
+        checkSelect(UID10, 3);
+    }
+
+    @Test
+    public void selectsOneOfCollidingCards()
+    {
+        sim.addCard(new VirtualClassicCard(UID7));
+        sim.addCard(new VirtualClassicCard(
+            new byte[] {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x67}));
+        int[] back_bits = new int[1];
+        reader.setupTranscieve(RaspRC522.PICC_REQALL, back_bits);
+        Uid selected = reader.selectCard();
+        assertNotNull(selected);
+        assertEquals(7, selected.getSize());
+    }
+
+    @Test
+    public void inventoryFindsAllCards()
+    {
+        byte[][] uids = {
+            UID4, {0x01, 0x02, 0x03, 0x05}, UID7, UID10,
+            {0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x67}
+        };
+        Set<ByteArray> expected = new HashSet<ByteArray>();
+        for (byte[] uid: uids)
+        {
+            sim.addCard(new VirtualClassicCard(uid));
+            expected.add(new ByteArray(uid));
+        }
+        Inventory inventory = reader.inventory(16);
+        assertEquals(uids.length, inventory.size());
+        Set<ByteArray> found = new HashSet<ByteArray>();
+        for (Uid uid: inventory.getUids())
+            found.add(new ByteArray(uid.getBytes()));
+        assertEquals(expected, found);
+        assertTrue(inventory.getCollisionCount() > 0);
+
+        // All cards are halted; each one can be selected again.
+        for (Uid uid: inventory.getUids())
+        {
+            assertEquals(RaspRC522.MI_OK, reader.reselect(uid.getBytes()));
+            assertEquals(RaspRC522.MI_OK, reader.halt());
+        }
+    }
+
+    @Test
+    public void inventoryStopsAtMaxCards()
+    {
+        sim.addCard(new VirtualClassicCard(UID4));
+        sim.addCard(new VirtualClassicCard(UID7));
+        sim.addCard(new VirtualClassicCard(UID10));
+        assertEquals(2, reader.inventory(2).size());
+    }
+
+    @Test
+    public void inventoryOfEmptyField()
+    {
+        assertEquals(0, reader.inventory(16).size());
+    }
+}
@@ -0,0 +1,158 @@
+package com.liangyuen.pi4j_rc522;
+
+/**
+ * A minimal MFRC522 register model with one MIFARE Classic card with a
+ * four byte UID in the field. It answers REQA/WUPA, anticollision and
+ * select at cascade level 1, MFAuthent with any key and READ of any
+ * block; other frames get no answer. The card can be selected any
+ * number of times, as done by CardPoller while the card is present.
+ *
+ * Unlike SimulatedRC522 it allocates nothing after construction, so
+ * allocations measured around RaspRC522 calls are the driver's own.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+class StubTransport implements RC522Transport
+{
+    private static final int COMMAND_REG = 0x01;
+    private static final int COMM_IRQ_REG = 0x04;
+    private static final int FIFO_DATA_REG = 0x09;
+    private static final int FIFO_LEVEL_REG = 0x0A;
+    private static final int BIT_FRAMING_REG = 0x0D;
+    private static final int STATUS2_REG = 0x08;
+    private static final int VERSION_REG = 0x37;
+    private static final int PCD_AUTHENT = 0x0E;
+    private static final int PCD_TRANSCEIVE = 0x0C;
+
+    private final int[] regs = new int[64];
+    private final byte[] fifo = new byte[64];
+    private int fifoLength = 0;
+    private int fifoRead = 0;
+
+    private final byte[] atqa = {0x04, 0x00};
+    private final byte[] uidBcc = new byte[5];
+    private final byte[] sak = new byte[3];
+    private final byte[] block = new byte[18];
+
+    StubTransport(byte[] uid)
+    {
+        System.arraycopy(uid, 0, uidBcc, 0, 4);
+        uidBcc[4] = (byte) (uid[0] ^ uid[1] ^ uid[2] ^ uid[3]);
+        sak[0] = 0x08;
+        addCrc(sak, 1);
+        for (int i = 0; i < 16; i += 1)
+            block[i] = (byte) i;
+        addCrc(block, 16);
+        regs[VERSION_REG] = 0x92;
+    }
+
+    private static void addCrc(byte[] frame, int length)
+    {
+        int crc = CrcA.compute(frame, 0, length);
+        frame[length] = (byte) crc;
+        frame[length + 1] = (byte) (crc >> 8);
+    }
+
+    @Override
+    public int transfer(byte[] data, int length)
+    {
+        int address = (data[0] >> 1) & 0x3F;
+        if ((data[0] & 0x80) != 0)
+        {
+            // Each byte shifted out answers the previous address byte.
+            data[0] = 0;
+            for (int i = 1; i < length; i += 1)
+            {
+                int next = (data[i] >> 1) & 0x3F;
+                data[i] = (byte) read(address);
+                address = next;
+            }
+            return length;
+        }
+        for (int i = 1; i < length; i += 1)
+            write(address, data[i] & 0xFF);
+        return length;
+    }
+
+    @Override
+    public void setResetPin(boolean high)
+    {
+    }
+
+    private int read(int address)
+    {
+        switch (address)
+        {
+            case FIFO_DATA_REG:
+                return fifoRead < fifoLength ? fifo[fifoRead++] & 0xFF : 0;
+            case FIFO_LEVEL_REG:
+                return fifoLength - fifoRead;
+            default:
+                return regs[address];
+        }
+    }
+
+    private void write(int address, int value)
+    {
+        switch (address)
+        {
+            case COMMAND_REG:
+                regs[address] = value;
+                if ((value & 0x0F) == PCD_AUTHENT)
+                {
+                    // Any key is accepted: Crypto1 on, command done.
+                    fifoLength = fifoRead = 0;
+                    regs[STATUS2_REG] |= 0x08;
+                    regs[COMM_IRQ_REG] |= 0x10;
+                }
+                break;
+            case COMM_IRQ_REG:
+                // Set1 bit: set or clear the other bits.
+                if ((value & 0x80) != 0)
+                    regs[address] |= value & 0x7F;
+                else
+                    regs[address] &= ~value;
+                break;
+            case FIFO_LEVEL_REG:
+                if ((value & 0x80) != 0)
+                    fifoLength = fifoRead = 0;
+                break;
+            case FIFO_DATA_REG:
+                if (fifoLength < fifo.length)
+                    fifo[fifoLength++] = (byte) value;
+                break;
+            case BIT_FRAMING_REG:
+                regs[address] = value;
+                if ((value & 0x80) != 0 && regs[COMMAND_REG] == PCD_TRANSCEIVE)
+                    transceive();
+                break;
+            default:
+                regs[address] = value;
+        }
+    }
+
+    /** Run the frame in the FIFO, leaving any answer there. */
+    private void transceive()
+    {
+        int cmd = fifoLength > 0 ? fifo[0] & 0xFF : -1;
+        int nvb = fifoLength > 1 ? fifo[1] & 0xFF : -1;
+        fifoLength = fifoRead = 0;
+        if (cmd == 0x26 || cmd == 0x52)
+            answer(atqa);
+        else if (cmd == 0x93 && nvb == 0x20)
+            answer(uidBcc);
+        else if (cmd == 0x93 && nvb == 0x70)
+            answer(sak);
+        else if (cmd == 0x30)
+            answer(block);
+        else
+            regs[COMM_IRQ_REG] |= 0x01;         // TimerIRq, no answer
+    }
+
+    private void answer(byte[] frame)
+    {
+        System.arraycopy(frame, 0, fifo, 0, frame.length);
+        fifoLength = frame.length;
+        regs[COMM_IRQ_REG] |= 0x30;             // RxIRq, IdleIRq
+    }
+}
@@ -0,0 +1,81 @@
+package com.liangyuen.pi4j_rc522;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * MIFARE Ultralight and NTAG21x identification and reading, run against
+ * SimulatedRC522.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class UltralightTest
+{
+    private static final byte[] UID = {
+        0x04, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06
+    };
+
+    private final SimulatedRC522 sim = new SimulatedRC522();
+    private final RaspRC522 reader = new RaspRC522(sim);
+
+    /** Add a card of given type with random user memory, returned. */
+    private byte[] addCard(UltralightType type)
+    {
+        VirtualUltralightCard card = new VirtualUltralightCard(UID, type);
+        byte[] data = new byte[type.getUserSize()];
+        new Random(type.ordinal()).nextBytes(data);
+        int size = UltralightType.PAGE_SIZE;
+        for (int i = 0; i < data.length / size; i += 1)
+        {
+            card.setPage(type.getUserStart() + i,
+                         Arrays.copyOfRange(data, i * size, (i + 1) * size));
+        }
+        sim.addCard(card);
+        int[] back_bits = new int[1];
+        reader.setupTranscieve(RaspRC522.PICC_REQALL, back_bits);
+        assertNotNull(reader.selectCard());
+        return data;
+    }
+
+    @Test
+    public void identifiesAndReadsAllTypes()
+    {
+        for (UltralightType type: UltralightType.values())
+        {
+            sim.removeAllCards();
+            byte[] data = addCard(type);
+            assertSame(type, reader.identifyUltralight(UID));
+            assertArrayEquals(type.toString(), data,
+                              reader.readUserMemory(type));
+        }
+    }
+
+    @Test
+    public void fastReadReturnsPageRange()
+    {
+        UltralightType type = UltralightType.NTAG213;
+        byte[] data = addCard(type);
+        byte[] buff = new byte[3 * UltralightType.PAGE_SIZE];
+        int start = type.getUserStart() + 2;
+        assertEquals(RaspRC522.MI_OK, reader.fastRead(start, start + 2, buff));
+        assertArrayEquals(Arrays.copyOfRange(data, 8, 20), buff);
+    }
+
+    @Test
+    public void fastReadRejectsBadRanges()
+    {
+        addCard(UltralightType.NTAG216);
+        byte[] buff = new byte[RaspRC522.MAX_RESPONSE_SIZE];
+        assertEquals(RaspRC522.MI_ERR, reader.fastRead(5, 4, buff));
+        assertEquals(RaspRC522.MI_ERR,
+                     reader.fastRead(4, 4 + reader.getMaxFastReadPages(),
+                                     buff));
+    }
+}
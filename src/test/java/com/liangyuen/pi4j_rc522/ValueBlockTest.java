@@ -0,0 +1,53 @@
+package com.liangyuen.pi4j_rc522;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * MIFARE Classic value block encoding.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class ValueBlockTest
+{
+    @Test
+    public void encodesNxpLayout()
+    {
+        assertArrayEquals(ByteArray.parse("e803000017fcffffe803000004fb04fb")
+                              .toBytes(),
+                          new ValueBlock(1000, 4).toBytes());
+    }
+
+    @Test
+    public void decodeRoundTrip()
+    {
+        for (int value: new int[] {0, 1, -7, Integer.MAX_VALUE,
+                                   Integer.MIN_VALUE})
+        {
+            ValueBlock block = ValueBlock.decode(
+                new ValueBlock(value, 9).toBytes());
+            assertEquals(value, block.getValue());
+            assertEquals(9, block.getAddress());
+        }
+    }
+
+    @Test
+    public void rejectsCorruptBlocks()
+    {
+        byte[] data = new ValueBlock(1000, 4).toBytes();
+        assertTrue(ValueBlock.isValid(data));
+        for (int i = 0; i < data.length; i += 1)
+        {
+            byte[] bad = data.clone();
+            bad[i] ^= 0x01;
+            assertFalse("Byte " + i, ValueBlock.isValid(bad));
+        }
+        assertFalse(ValueBlock.isValid(new byte[16]));
+        assertNull(ValueBlock.decode(new byte[15]));
+    }
+}
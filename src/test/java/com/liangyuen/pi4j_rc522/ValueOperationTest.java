@@ -0,0 +1,87 @@
+package com.liangyuen.pi4j_rc522;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * MIFARE Classic value block commands run against SimulatedRC522.
+ *
+ * Copyright (c) Alec Leamas, 2018
+ */
+public class ValueOperationTest
+{
+    private static final byte[] UID = {0x01, 0x02, 0x03, 0x04};
+    private static final byte[] KEY = {-1, -1, -1, -1, -1, -1};
+    private static final byte BLOCK = 4;
+
+    private final SimulatedRC522 sim = new SimulatedRC522();
+    private final RaspRC522 reader = new RaspRC522(sim);
+    private final VirtualClassicCard card = new VirtualClassicCard(UID);
+
+    public ValueOperationTest()
+    {
+        sim.addCard(card);
+    }
+
+    /** Select the card and authenticate sector 1, blocks 4-7. */
+    private void authenticate()
+    {
+        assertEquals(RaspRC522.MI_OK, reader.reselect(UID));
+        assertEquals(RaspRC522.MI_OK,
+                     reader.authCard(RaspRC522.PICC_AUTHENT1A, BLOCK, KEY,
+                                     UID));
+    }
+
+    @Test
+    public void writeAndReadValue()
+    {
+        authenticate();
+        assertEquals(RaspRC522.MI_OK, reader.writeValue(BLOCK, 1000));
+        assertEquals(1000, reader.readValue(BLOCK).getValue());
+        assertArrayEquals(new ValueBlock(1000, BLOCK).toBytes(),
+                          card.getBlock(BLOCK));
+    }
+
+    @Test
+    public void decrementAndIncrementNeedTransfer()
+    {
+        authenticate();
+        reader.writeValue(BLOCK, 1000);
+        assertEquals(RaspRC522.MI_OK, reader.decrement(BLOCK, 250));
+        assertEquals(1000, reader.readValue(BLOCK).getValue());
+        assertEquals(RaspRC522.MI_OK, reader.transfer(BLOCK));
+        assertEquals(750, reader.readValue(BLOCK).getValue());
+
+        assertEquals(RaspRC522.MI_OK, reader.increment(BLOCK, 5));
+        assertEquals(RaspRC522.MI_OK, reader.transfer(BLOCK));
+        assertEquals(755, reader.readValue(BLOCK).getValue());
+    }
+
+    @Test
+    public void restoreCopiesToAnotherBlock()
+    {
+        authenticate();
+        reader.writeValue(BLOCK, 42);
+        assertEquals(RaspRC522.MI_OK, reader.restore(BLOCK));
+        assertEquals(RaspRC522.MI_OK, reader.transfer((byte) (BLOCK + 1)));
+        assertEquals(42, reader.readValue((byte) (BLOCK + 1)).getValue());
+        assertTrue(ValueBlock.isValid(card.getBlock(BLOCK + 1)));
+    }
+
+    @Test
+    public void valueCommandsRejectDataBlocks()
+    {
+        authenticate();
+        assertNull(reader.readValue(BLOCK));
+        assertTrue(reader.decrement(BLOCK, 1) != RaspRC522.MI_OK);
+
+        // The card drops the crypto session on errors.
+        authenticate();
+        assertTrue(reader.transfer(BLOCK) != RaspRC522.MI_OK);
+        assertArrayEquals(new byte[16], card.getBlock(BLOCK));
+    }
+}